@@ -1,40 +1,89 @@
 package org.zyneonstudios.apex.bootstrapper;
 
-import com.formdev.flatlaf.FlatDarkLaf;
-import com.formdev.flatlaf.themes.FlatMacDarkLaf;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
-import javax.swing.*;
-import java.awt.*;
+import javax.swing.SwingUtilities;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
 
 public class ApexBootstrapper implements Bootstrapper {
 
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final String CACHE_LOCK = "cache";
 
     private final String url;
     private final String path;
-    private final String json;
-    private final String name;
+    private final JsonObject metadata;
+    private final String product;
+    private final String channel;
+    private String name;
     private final boolean offline;
     private String currentVersion;
-    private String latestVersion;
+    private Release release;
+    private String currentHash;
+    private List<String> installedLibraries;
     private final File localMetaDataFile;
     private final JsonObject localMetaData;
+    private JsonObject savedMetaData;
+    private final MetadataCache metadataCache;
+    private final Mirrors mirrors;
+    private final Object transportLock = new Object();
+    private CompletableFuture<HttpTransport> transport = null;
+    private final RateLimiter rateLimiter = new RateLimiter(this::getRateLimit);
+    private volatile long rateLimit = -1;
+    private volatile long backgroundRateLimit = -1;
+    private long rateLimitOverride = -1;
+    private long backgroundRateLimitOverride = -1;
+    private volatile boolean applicationRunning = false;
+    private final VersionHistory history;
+    private final List<String> metadataMirrors = new ArrayList<>();
     private final boolean autoUpdate;
     private boolean forceUpdate;
+    private final boolean stageUpdates;
 
-    private final String executableUrl;
+    private String launchStrategy = LaunchStrategy.PROCESS;
+    private boolean classDataSharing = true;
+    private long maxRestarts = -1;
+    private long restartBackoff = -1;
+    private boolean warmStandby = false;
+    private boolean verifyExecutable = true;
+    private File checkedExecutable = null;
+    private ManagedRuntime runtime = null;
+    private CompletableFuture<Boolean> executableCheck = null;
+    private JvmOptions jvmOptions = new JvmOptions();
+    private final ArtifactStore store;
     private final boolean outputLogs;
     private final boolean outputErrors;
     private final String[] args;
 
-    private JFrame bootstrapperFrame = null;
+    private final StartupMetrics metrics = new StartupMetrics();
+    private File metricsFile = null;
+
+    private volatile ProgressReporter progressReporter = ProgressReporter.NONE;
+    private final Object statusLock = new Object();
+    private String status = null;
+    private CompletableFuture<Void> frameReady = CompletableFuture.completedFuture(null);
+    private final List<DownloadListener> downloadListeners = new CopyOnWriteArrayList<>();
 
     public ApexBootstrapper(String url) {
         this(url,".",new File("./bootstrapper-meta.json"),new String[0],true,true);
@@ -45,14 +94,26 @@ public class ApexBootstrapper implements Bootstrapper {
     }
 
     public ApexBootstrapper(String url, String path, File localMetaDataFile, String[] args, boolean outputLogs, boolean outputErrors) {
-        try {
-            FlatDarkLaf.setup();
-            if(System.getProperty("os.name").toLowerCase().contains("mac")) {
-                UIManager.setLookAndFeel(new FlatMacDarkLaf());
-            } else {
-                UIManager.setLookAndFeel(new FlatDarkLaf());
-            }
-        } catch (Exception ignore) {}
+        this(url, path, localMetaDataFile, args, outputLogs, outputErrors, false);
+    }
+
+    public ApexBootstrapper(String url, String path, File localMetaDataFile, String[] args, boolean outputLogs, boolean outputErrors, boolean launchFirst) {
+        this(url, new String[0], path, localMetaDataFile, args, outputLogs, outputErrors, launchFirst);
+    }
+
+    public ApexBootstrapper(String url, String[] mirrorUrls, String path, File localMetaDataFile, String[] args, boolean outputLogs, boolean outputErrors, boolean launchFirst) {
+        this(url, mirrorUrls, path, localMetaDataFile, args, outputLogs, outputErrors, launchFirst, false);
+    }
+
+    /**
+     * Creates the bootstrapper and resolves the installed and the latest version. The progress frame, the HTTP client,
+     * the metadata cache and the local meta data are prepared concurrently, so the frame is already visible while the
+     * metadata is fetched. The frame is built on the event dispatch thread. When the launch checks for updates in any case, the fetch starts right after the local meta
+     * data is read and runs while the staged update and the cache are checked. Statuses set before the frame exists are
+     * shown once it does.
+     * @param showFrame Shows the progress frame while the bootstrapper is created
+     */
+    public ApexBootstrapper(String url, String[] mirrorUrls, String path, File localMetaDataFile, String[] args, boolean outputLogs, boolean outputErrors, boolean launchFirst, boolean showFrame) {
         this.outputLogs = outputLogs;
         this.outputErrors = outputErrors;
         this.args = args;
@@ -67,138 +128,381 @@ public class ApexBootstrapper implements Bootstrapper {
             log("Created directory path (first launch): " + path);
         }
 
-        String fetched = getData(url);
-        if (fetched == null) {
-            log("No data found. Switching to offline mode.");
-            this.json = "{}";
-            this.offline = true;
-        } else {
-            log("Data found, fetching information...");
-            this.json = fetched;
-            this.offline = false;
+        if (showFrame) {
+            frameReady = showFrameLater();
         }
+        CompletableFuture<MetadataCache> metadataCacheReady = CompletableFuture.supplyAsync(() -> new MetadataCache(localMetaDataFile, url));
 
         this.localMetaDataFile = localMetaDataFile;
+        this.store = new ArtifactStore(new File(path, "cache"));
         if(localMetaDataFile!=null&&localMetaDataFile.exists()) {
             log("Found local meta data...");
         }
+        StartupMetrics.Phase localMetaRead = metrics.begin(StartupMetrics.LOCAL_META_READ);
         this.localMetaData = getLocalMetaData();
+        this.savedMetaData = localMetaData.deepCopy();
+        localMetaRead.end(localMetaDataFile != null && localMetaDataFile.isFile() ? localMetaDataFile.length() : 0);
 
-        if (localMetaData.has("installedVersion")) {
-            currentVersion = localMetaData.get("installedVersion").getAsString();
+        if (localMetaData.has("forceUpdate")) {
+            forceUpdate = localMetaData.get("forceUpdate").getAsBoolean();
         } else {
-            currentVersion = "0";
+            forceUpdate = false;
         }
-        log("Current version is: " + currentVersion);
-
         if (localMetaData.has("autoUpdate")) {
             autoUpdate = localMetaData.get("autoUpdate").getAsBoolean();
         } else {
             autoUpdate = true;
         }
+        this.product = localMetaData.has("product") ? localMetaData.get("product").getAsString() : null;
+        this.channel = localMetaData.has("channel") ? localMetaData.get("channel").getAsString() : Manifest.DEFAULT_CHANNEL;
+        boolean backgroundMode = launchFirst || (localMetaData.has("updateMode") && "background".equalsIgnoreCase(localMetaData.get("updateMode").getAsString()));
+        long checkAge = getCheckAge();
+        long checkInterval = getCheckInterval();
+        if (checkInterval <= 0 || checkAge < 0 || checkAge >= checkInterval) {
+            prepareTransport();
+        }
+
+        this.metadataCache = metadataCacheReady.join();
+        this.mirrors = new Mirrors(this, localMetaData);
+        this.history = new VersionHistory(this, localMetaData, store);
+        metadataMirrors.addAll(Arrays.asList(mirrorUrls));
+        if (localMetaData.has("metadataMirrors") && localMetaData.get("metadataMirrors").isJsonArray()) {
+            for (JsonElement element : localMetaData.getAsJsonArray("metadataMirrors")) {
+                metadataMirrors.add(element.getAsString());
+            }
+        }
+
+        // Without a check interval or background updates every launch fetches the metadata, so the request already
+        // runs while the staged update and the cache are checked.
+        CompletableFuture<JsonObject> fetch = null;
+        if (forceUpdate || (checkInterval <= 0 && !(backgroundMode && autoUpdate))) {
+            fetch = CompletableFuture.supplyAsync(() -> getData(url));
+        }
+
+        applyStagedUpdate();
+
+        synchronized (this) {
+            if (localMetaData.has("installedVersion")) {
+                currentVersion = localMetaData.get("installedVersion").getAsString();
+            } else {
+                currentVersion = "0";
+            }
+            if (localMetaData.has("installedHash") && ArtifactStore.isValidHash(localMetaData.get("installedHash").getAsString())) {
+                currentHash = localMetaData.get("installedHash").getAsString();
+            } else {
+                currentHash = null;
+            }
+            installedLibraries = readHashes(localMetaData, "installedLibraries");
+        }
+        log("Current version is: " + currentVersion);
+
+        boolean canLaunchLocally = fetch == null && !forceUpdate && currentHash != null && store.contains(currentHash, -1) && metadataCache.hasBody();
+        boolean checkFresh = canLaunchLocally && checkInterval > 0 && checkAge >= 0 && checkAge < checkInterval;
+        boolean revalidate = canLaunchLocally && autoUpdate && checkInterval > 0 && !checkFresh;
+        this.stageUpdates = !checkFresh && (revalidate || (backgroundMode && canLaunchLocally && autoUpdate));
+        JsonObject cached;
+        if (checkFresh && (cached = getCachedData()) != null) {
+            log("Last update check was " + checkAge / 1000 + " s ago, skipping the update check for " + (checkInterval - checkAge) / 1000 + " s.");
+            this.metadata = cached;
+            this.offline = false;
+        } else if (stageUpdates) {
+            log(revalidate ? "Update check expired: using cached metadata, the update check runs in the background."
+                    : "Launch-first mode: using cached metadata, updates will be staged in the background.");
+            cached = getCachedData();
+            this.metadata = cached != null ? cached : new JsonObject();
+            this.offline = false;
+        } else {
+            JsonObject fetched = fetch != null ? fetch.join() : getData(url);
+            if (fetched != null) {
+                log("Data found, fetching information...");
+                this.metadata = fetched;
+                this.offline = false;
+            } else if (metadataCache.hasBody() && (cached = getCachedData()) != null) {
+                log("No data found. Switching to offline mode with cached metadata.");
+                this.metadata = cached;
+                this.offline = true;
+            } else {
+                log("No data found. Switching to offline mode.");
+                this.metadata = new JsonObject();
+                this.offline = true;
+            }
+        }
+
+        applyMetadata(metadata);
+
+        if(offline && !localMetaDataFile.exists()) {
+            SwingProgressReporter.showErrorDialog("The local meta data file does not exist. An internet connection is required for the first launch.");
+            throw new RuntimeException("The local meta data file does not exist. An internet connection is required for the first launch.");
+        }
+
+        if (!offline && !stageUpdates && (forceUpdate || (!isLatest() && autoUpdate) || !new File(getExecutablePath()).isFile())) {
+            prepareTransport();
+        }
+    }
 
+    /**
+     * Applies the launch configuration of the metadata this session started with. Metadata fetched later by a
+     * background check only stages a new {@link Release}, so the running session keeps this configuration.
+     */
+    private void applyMetadata(JsonObject jsonObject) {
         String productName = "application";
         if(localMetaData.has("installedProduct")) {
             productName = localMetaData.get("installedProduct").getAsString();
         }
+        this.name = jsonObject.has("name") ? jsonObject.get("name").getAsString() : productName;
 
-        if (localMetaData.has("forceUpdate")) {
-            forceUpdate = localMetaData.get("forceUpdate").getAsBoolean();
-        } else {
+        launchStrategy = jsonObject.has("launchStrategy") ? jsonObject.get("launchStrategy").getAsString() : LaunchStrategy.PROCESS;
+        classDataSharing = !jsonObject.has("classDataSharing") || jsonObject.get("classDataSharing").getAsBoolean();
+        jvmOptions = JvmOptions.resolve(jsonObject, localMetaData);
+        mirrors.setPrefixes(jsonObject);
+        rateLimit = readLong("rateLimit", jsonObject);
+        backgroundRateLimit = readLong("backgroundRateLimit", jsonObject);
+        history.setLimits(jsonObject);
+        maxRestarts = readLong("maxRestarts", jsonObject);
+        restartBackoff = readLong("restartBackoff", jsonObject);
+        warmStandby = readBoolean("warmStandby", jsonObject, false);
+        verifyExecutable = readBoolean("verifyExecutable", jsonObject, true);
+
+        release = readRelease(jsonObject);
+        runtime = release.runtime;
+        if (release.url.isEmpty()) {
             forceUpdate = false;
         }
+    }
 
-        JsonObject jsonObject = GSON.fromJson(this.json, JsonObject.class);
-        if (jsonObject == null) {
-            throw new NullPointerException("The data could not be parsed.");
-        }
+    /**
+     * Reads the version the metadata offers for download, without touching the configuration of this session.
+     * @return Release, which is the current version if the metadata has no download URL
+     */
+    private Release readRelease(JsonObject jsonObject) {
+        Release release = new Release();
         if (jsonObject.has("version")) {
-            latestVersion = jsonObject.get("version").getAsString();
+            release.version = jsonObject.get("version").getAsString();
         } else {
             log("No version info in metadata, using current version as latest.");
-            latestVersion = currentVersion;
+            release.version = currentVersion;
         }
 
-        this.name = jsonObject.has("name") ? jsonObject.get("name").getAsString() : productName;
+        if (jsonObject.has("sha256") && ArtifactStore.isValidHash(jsonObject.get("sha256").getAsString())) {
+            release.hash = jsonObject.get("sha256").getAsString().toLowerCase();
+        }
+        release.size = jsonObject.has("size") ? jsonObject.get("size").getAsLong() : -1;
 
         if (jsonObject.has("downloadUrl")) {
-            executableUrl = jsonObject.get("downloadUrl").getAsString();
-            log("Latest version is: " + latestVersion);
+            release.url = jsonObject.get("downloadUrl").getAsString();
+            log("Latest version is: " + release.version);
         } else {
-            executableUrl = "";
             log("No download URL found for latest version. Reverting to current version.");
-            latestVersion = currentVersion;
-            forceUpdate = false;
+            release.version = currentVersion;
         }
 
-        if(offline && !localMetaDataFile.exists()) {
-            if(Desktop.isDesktopSupported()) {
-                JDialog errorDialog = new JDialog();
-                errorDialog.setTitle("Apex Bootstrapper - Error");
-                errorDialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
-                JLabel messageLabel = new JLabel("<html><body style='width: 300px; padding: 10px;'>The local meta data file does not exist. An internet connection is required for the first launch.</body></html>");
-                messageLabel.setHorizontalAlignment(SwingConstants.CENTER);
-                errorDialog.getContentPane().add(messageLabel, BorderLayout.CENTER);
-                errorDialog.setSize(350, 150);
-                errorDialog.setResizable(false);
-                errorDialog.setLocationRelativeTo(null);
-                errorDialog.setModal(true);
-                errorDialog.setVisible(true);
+        if (jsonObject.has("compressed") && jsonObject.get("compressed").isJsonObject()) {
+            JsonObject compressed = jsonObject.getAsJsonObject("compressed");
+            String encoding = compressed.has("encoding") ? compressed.get("encoding").getAsString() : "gzip";
+            if (compressed.has("url") && "gzip".equalsIgnoreCase(encoding)) {
+                release.compressedUrl = compressed.get("url").getAsString();
+                release.compressedChecksum = compressed.has("sha256") ? compressed.get("sha256").getAsString() : null;
+            } else {
+                log("Ignoring compressed variant with unsupported encoding: " + encoding);
             }
-            throw new RuntimeException("The local meta data file does not exist. An internet connection is required for the first launch.");
         }
 
-        System.gc();
+        release.libraries = LibraryInstaller.parse(this, jsonObject);
+        String strategy = jsonObject.has("launchStrategy") ? jsonObject.get("launchStrategy").getAsString() : LaunchStrategy.PROCESS;
+        release.runtime = LaunchStrategy.IN_PROCESS.equalsIgnoreCase(strategy) ? null : ManagedRuntime.select(this, jsonObject, new File(path, "runtime"));
+
+        if (jsonObject.has("patches") && jsonObject.get("patches").isJsonArray()) {
+            for (JsonElement element : jsonObject.getAsJsonArray("patches")) {
+                JsonObject patch = element.getAsJsonObject();
+                if (patch.has("from") && patch.has("url") && patch.has("sha256") && patch.get("from").getAsString().equals(currentVersion)) {
+                    release.patchUrl = patch.get("url").getAsString();
+                    release.patchChecksum = patch.get("sha256").getAsString();
+                    log("Found patch from version " + currentVersion + " to " + release.version + ".");
+                    break;
+                }
+            }
+        }
+        return release;
+    }
+
+    /**
+     * Switches to the version a background update staged. It runs while the metadata may already be fetched, so the
+     * local meta data is only accessed under the lock that the fetch holds for its changes.
+     */
+    private void applyStagedUpdate() {
+        String stagedVersion;
+        String stagedHash;
+        List<String> stagedLibraries;
+        String previousHash;
+        List<String> previousLibraries;
+        synchronized (this) {
+            if (!localMetaData.has("stagedVersion") || !localMetaData.has("stagedHash")) {
+                return;
+            }
+            stagedVersion = localMetaData.get("stagedVersion").getAsString();
+            stagedHash = localMetaData.get("stagedHash").getAsString();
+            stagedLibraries = readHashes(localMetaData, "stagedLibraries");
+            localMetaData.remove("stagedVersion");
+            localMetaData.remove("stagedHash");
+            localMetaData.remove("stagedLibraries");
+            if (!store.contains(stagedHash, -1) || !containsAll(stagedLibraries)) {
+                logError("Staged version " + stagedVersion + " is missing from the cache, discarding it.");
+                saveLocalMetaData();
+                return;
+            }
+            previousHash = localMetaData.has("installedHash") ? localMetaData.get("installedHash").getAsString() : null;
+            previousLibraries = readHashes(localMetaData, "installedLibraries");
+            localMetaData.addProperty("installedVersion", stagedVersion);
+            localMetaData.addProperty("installedHash", stagedHash);
+            localMetaData.add("installedLibraries", toJsonArray(stagedLibraries));
+        }
+        if (saveLocalMetaData()) {
+            log("Switched to staged version " + stagedVersion + ".");
+            currentHash = stagedHash;
+            installedLibraries = stagedLibraries;
+            cleanup(() -> evictVersions(previousHash, previousLibraries));
+        }
+    }
+
+    private JsonObject getData(String urlString) {
+        StartupMetrics.Phase phase = metrics.begin(StartupMetrics.METADATA_FETCH);
+        Manifest manifest = new Manifest(this, product, channel);
+        JsonObject data = fetchData(urlString, manifest, phase);
+        phase.end(manifest.getBytesRead());
+        if (data != null) {
+            synchronized (this) {
+                localMetaData.addProperty("lastCheck", System.currentTimeMillis());
+                if (data.has("checkInterval")) {
+                    localMetaData.addProperty("checkInterval", data.get("checkInterval").getAsLong());
+                } else {
+                    localMetaData.remove("checkInterval");
+                }
+            }
+        }
+        if ((data != null || mirrors.hasChanged()) && localMetaDataFile != null && localMetaDataFile.exists()) {
+            saveLocalMetaData();
+        }
+        return data;
+    }
+
+    /**
+     * @return Milliseconds since the last successful update check, or -1 if there was none
+     */
+    private long getCheckAge() {
+        if (!localMetaData.has("lastCheck")) {
+            return -1;
+        }
+        long age = System.currentTimeMillis() - localMetaData.get("lastCheck").getAsLong();
+        return age >= 0 ? age : -1;
+    }
+
+    /**
+     * Resolves how long an update check stays valid. The server sets it as {@code checkInterval} in seconds in the
+     * metadata; it is recorded in the local meta data with every successful check.
+     * @return Milliseconds, or -1 if every launch checks for updates
+     */
+    private long getCheckInterval() {
+        if (!localMetaData.has("checkInterval")) {
+            return -1;
+        }
+        long interval = localMetaData.get("checkInterval").getAsLong();
+        return interval > 0 ? interval * 1000 : -1;
+    }
+
+    private JsonObject getCachedData() {
+        try (InputStream in = metadataCache.openBody()) {
+            return new Manifest(this, product, channel).read(in);
+        } catch (Exception e) {
+            logError("Error reading cached metadata: " + e.getMessage());
+            return null;
+        }
     }
 
-    private String getData(String urlString) {
+    private JsonObject fetchData(String urlString, Manifest manifest, StartupMetrics.Phase phase) {
         log("Fetching data from: " + urlString);
-        HttpURLConnection connection = null;
+        HttpTransport.Response response = null;
         try {
             URL url = new URI(urlString).toURL();
             String protocol = url.getProtocol();
 
             if ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
-                connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(10000);
-                connection.setRequestProperty("User-Agent", "ApexBootstrapper/1.0");
-
-                int code = connection.getResponseCode();
-                if (code >= 200 && code < 300) {
-                    try (InputStream in = connection.getInputStream();
-                         BufferedReader reader = new BufferedReader(new InputStreamReader(in, java.nio.charset.StandardCharsets.UTF_8))) {
-                        StringBuilder response = new StringBuilder();
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            response.append(line);
-                        }
-                        return response.toString();
+                Mirrors.Result<HttpTransport.Response> result = mirrors.race(mirrors.getCandidates(urlString, metadataMirrors), new Mirrors.Request<HttpTransport.Response>() {
+                    @Override
+                    public HttpTransport.Response open(String mirror) throws Exception {
+                        return openMetadataConnection(mirror);
                     }
-                } else {
-                    logError("HTTP error: " + code + " - " + connection.getResponseMessage());
+
+                    @Override
+                    public void release(HttpTransport.Response value) {
+                        try {
+                            value.close();
+                        } catch (IOException ignore) {}
+                    }
+                });
+                if (result == null) {
                     return null;
                 }
-            } else {
-                try (InputStream in = url.openStream();
-                     BufferedReader reader = new BufferedReader(new InputStreamReader(in, java.nio.charset.StandardCharsets.UTF_8))) {
-                    StringBuilder response = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        response.append(line);
+                response = result.value;
+                if (!result.url.equals(urlString)) {
+                    log("Using metadata mirror: " + result.url);
+                }
+
+                if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && metadataCache.hasBody()) {
+                    log("Metadata not modified, using cached response.");
+                    return getCachedData();
+                }
+                CountingInputStream transferred = new CountingInputStream(response.getBody());
+                InputStream body = "gzip".equalsIgnoreCase(response.getHeader("Content-Encoding")) ? new GZIPInputStream(transferred) : transferred;
+                try (MetadataCache.Recording in = metadataCache.record(body, response.getHeader("ETag"), response.getHeader("Last-Modified"))) {
+                    JsonObject data = manifest.read(in);
+                    try {
+                        in.commit();
+                    } catch (Exception e) {
+                        logError("Error caching metadata: " + e.getMessage());
                     }
-                    return response.toString();
+                    phase.end(transferred.getCount(), manifest.getBytesRead());
+                    return data;
+                }
+            } else {
+                try (InputStream in = url.openStream()) {
+                    return manifest.read(in);
                 }
             }
         } catch (Exception e) {
             logError("Error fetching data from URL: " + e.getMessage());
             return null;
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            if (response != null) {
+                try {
+                    response.close();
+                } catch (IOException ignore) {}
+            }
+        }
+    }
+
+    /**
+     * Opens a conditional metadata request and waits for the response headers.
+     * @return Response with a usable status, or null if the server answered with an error
+     */
+    private HttpTransport.Response openMetadataConnection(String urlString) throws Exception {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept-Encoding", "gzip");
+        if (metadataCache.hasBody()) {
+            if (metadataCache.getEtag() != null) {
+                headers.put("If-None-Match", metadataCache.getEtag());
             }
+            if (metadataCache.getLastModified() != null) {
+                headers.put("If-Modified-Since", metadataCache.getLastModified());
+            }
+        }
+        HttpTransport.Response response = getTransport().send("GET", urlString, headers, 5000, 10000);
+        int code = response.getStatus();
+        if ((code == HttpURLConnection.HTTP_NOT_MODIFIED && metadataCache.hasBody()) || (code >= 200 && code < 300)) {
+            return response;
         }
+        logError("HTTP error: " + code);
+        response.close();
+        return null;
     }
 
     private JsonObject getLocalMetaData() {
@@ -230,7 +534,7 @@ public class ApexBootstrapper implements Bootstrapper {
 
     @Override
     public String getLatestVersion() {
-        return latestVersion;
+        return release.version;
     }
 
     @Override
@@ -240,7 +544,7 @@ public class ApexBootstrapper implements Bootstrapper {
 
     @Override
     public String getJson() {
-        return json;
+        return metadata.toString();
     }
 
     @Override
@@ -250,7 +554,7 @@ public class ApexBootstrapper implements Bootstrapper {
 
     @Override
     public boolean isLatest() {
-        return currentVersion.equals(latestVersion);
+        return currentVersion.equals(release.version);
     }
 
     @Override
@@ -270,25 +574,32 @@ public class ApexBootstrapper implements Bootstrapper {
 
     @Override
     public boolean hasFallback() {
-        return false;
+        return history.getFallback() != null;
     }
 
     @Override
     public boolean update() {
+        if (stageUpdates) {
+            startBackgroundUpdate();
+            log("Skipping update: Updates are staged in the background while the installed version runs.");
+            return false;
+        }
         if (!isOffline()) {
-            if (!new File(getExecutablePath()).exists() || forceUpdate || (!isLatest() && autoUpdate)) {
-                label.setText("Updating to version " + latestVersion + "...");
-                label.setForeground(Color.white);
-                if (downloadExecutable()) {
+            if (!isExecutableIntact() || forceUpdate || (!isLatest() && autoUpdate)) {
+                setStatus("Updating to version " + release.version + "...");
+                String previousHash = currentHash;
+                List<String> previousLibraries = installedLibraries;
+                if (downloadUpdate(release)) {
                     if (updateVersion()) {
-                        log("Update to version " + latestVersion + " completed successfully.");
+                        log("Update to version " + release.version + " completed successfully.");
+                        deleteOldExecutables(previousHash, previousLibraries);
                     } else {
                         logError("Failed to update version information after download. The updater will start the update again on next launch.");
                         return false;
                     }
                     return true;
                 } else {
-                    logError("Update to version " + latestVersion + " failed during download.");
+                    logError("Update to version " + release.version + " failed during download.");
                     return false;
                 }
             }
@@ -297,9 +608,41 @@ public class ApexBootstrapper implements Bootstrapper {
         return false;
     }
 
+    private boolean isExecutableIntact() {
+        File executable = new File(getExecutablePath());
+        if (!executable.isFile()) {
+            return false;
+        }
+        if (currentHash != null && currentHash.equals(release.hash) && release.size >= 0 && executable.length() != release.size) {
+            logError("Installed executable does not have the expected size, it will be downloaded again.");
+            return false;
+        }
+        if (!containsAll(installedLibraries)) {
+            logError("Installed libraries are missing from the cache, they will be downloaded again.");
+            return false;
+        }
+        if (runtime != null && !runtime.isInstalled()) {
+            log("Java runtime " + runtime.getVersion() + " is not installed yet, it will be downloaded.");
+            return false;
+        }
+        return true;
+    }
+
     @SuppressWarnings("all")
     private boolean updateVersion() {
-        currentVersion = latestVersion;
+        currentVersion = release.version;
+        currentHash = release.hash;
+        if (localMetaData.has("installedHash")) {
+            localMetaData.remove("installedHash");
+        }
+        if (currentHash != null) {
+            localMetaData.addProperty("installedHash", currentHash);
+        }
+        installedLibraries = new ArrayList<>();
+        for (LibraryInstaller.Library library : release.libraries) {
+            installedLibraries.add(library.sha256);
+        }
+        localMetaData.add("installedLibraries", toJsonArray(installedLibraries));
         if (localMetaData.has("installedVersion")) {
             localMetaData.remove("installedVersion");
         }
@@ -314,17 +657,27 @@ public class ApexBootstrapper implements Bootstrapper {
         }
         localMetaData.addProperty("forceUpdate", false);
         localMetaData.addProperty("installedProduct", name);
-        localMetaData.addProperty("installedVersion", latestVersion);
+        localMetaData.addProperty("installedVersion", release.version);
+        if (saveLocalMetaData()) {
+            log("Updated local metadata file with new version.");
+            return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("all")
+    private synchronized boolean saveLocalMetaData() {
         try {
             if (localMetaDataFile != null) {
                 File parent = localMetaDataFile.getParentFile();
                 if (parent != null && !parent.exists()) {
                     parent.mkdirs();
                 }
-                try (FileWriter writer = new FileWriter(localMetaDataFile)) {
-                    writer.write(GSON.toJson(localMetaData));
+                try (LockFile ignored = LockFile.lock(MetadataCache.getLockFile(localMetaDataFile), false)) {
+                    mergeLocalMetaData();
+                    AtomicFiles.write(localMetaDataFile, GSON.toJson(localMetaData));
+                    savedMetaData = localMetaData.deepCopy();
                 }
-                log("Updated local metadata file with new version.");
                 return true;
             } else {
                 logError("Local metadata file reference is null.");
@@ -335,153 +688,660 @@ public class ApexBootstrapper implements Bootstrapper {
         return false;
     }
 
-    private boolean downloadExecutable() {
+    /**
+     * Merges the changes that other processes saved since this one read or last saved the local meta data. Keys this
+     * process changed keep its value, every other key takes the value on disk. The local meta data is updated in place,
+     * because the mirrors and the version history share it.
+     */
+    private void mergeLocalMetaData() {
+        JsonObject disk;
+        try {
+            if (!localMetaDataFile.isFile()) {
+                return;
+            }
+            disk = GSON.fromJson(new String(Files.readAllBytes(localMetaDataFile.toPath()), StandardCharsets.UTF_8), JsonObject.class);
+        } catch (Exception e) {
+            logError("Error reading local metadata file before saving, overwriting it: " + e.getMessage());
+            return;
+        }
+        if (disk == null) {
+            return;
+        }
+        Set<String> keys = new HashSet<>(disk.keySet());
+        keys.addAll(localMetaData.keySet());
+        keys.addAll(savedMetaData.keySet());
+        for (String key : keys) {
+            if (Objects.equals(savedMetaData.get(key), localMetaData.get(key))) {
+                JsonElement value = disk.get(key);
+                if (value != null) {
+                    localMetaData.add(key, value);
+                } else {
+                    localMetaData.remove(key);
+                }
+            }
+        }
+    }
+
+    private void startBackgroundUpdate() {
+        Thread thread = new Thread(() -> {
+            JsonObject fetched = getData(url);
+            if (fetched == null) {
+                log("Background update check failed, keeping the installed version.");
+                return;
+            }
+            Release staged = readRelease(fetched);
+            if (currentVersion.equals(staged.version) && (staged.hash == null || staged.hash.equals(currentHash))) {
+                log("Background update check: latest version already installed.");
+                return;
+            }
+            mirrors.setPrefixes(fetched);
+            log("Staging version " + staged.version + " in the background...");
+            if (downloadUpdate(staged)) {
+                List<String> stagedLibraries = new ArrayList<>();
+                for (LibraryInstaller.Library library : staged.libraries) {
+                    stagedLibraries.add(library.sha256);
+                }
+                synchronized (this) {
+                    localMetaData.addProperty("stagedVersion", staged.version);
+                    localMetaData.addProperty("stagedHash", staged.hash);
+                    localMetaData.add("stagedLibraries", toJsonArray(stagedLibraries));
+                }
+                if (saveLocalMetaData()) {
+                    log("Version " + staged.version + " has been staged and will be used on next launch.");
+                }
+            } else {
+                logError("Background update to version " + staged.version + " failed during download.");
+            }
+        }, "ApexBootstrapper-BackgroundUpdate");
+        thread.setDaemon(false);
+        thread.start();
+    }
+
+    /**
+     * Downloads the executable, libraries and runtime of the given release. Other processes sharing the path may
+     * download at the same time; they hold the cache lock shared, so no process cleans up the cache while another one
+     * downloads.
+     * @return boolean downloadSuccess
+     */
+    private boolean downloadUpdate(Release release) {
+        try (LockFile ignored = LockFile.lock(store.getLockFile(CACHE_LOCK), true)) {
+            return downloadExecutable(release) && downloadLibraries(release) && downloadRuntime(release);
+        } catch (IOException e) {
+            logError("Error locking the cache: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Locks an artifact against other processes, so only one of them downloads it while the others wait and reuse it.
+     * @return LockFile that has to be closed after the artifact was published
+     */
+    LockFile lockArtifact(String key) throws IOException {
+        File lockFile = store.getLockFile(key);
+        LockFile lock = LockFile.tryLock(lockFile, false);
+        if (lock == null) {
+            log("Waiting for another launcher to finish downloading " + key + "...");
+            setStatus("Waiting for another launcher to finish downloading...");
+            lock = LockFile.lock(lockFile, false);
+        }
+        return lock;
+    }
+
+    private boolean downloadExecutable(Release release) {
         File cacheDir = new File(path, "cache");
-        if (!cacheDir.exists()) {
-            if (!cacheDir.mkdirs()) {
-                logError("Failed to create cache directory: " + cacheDir.getAbsolutePath());
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            logError("Failed to create cache directory: " + cacheDir.getAbsolutePath());
+            return false;
+        }
+        try (LockFile ignored = lockArtifact(release.hash != null ? release.hash : name + "-v" + release.version)) {
+            return downloadExecutable(release, cacheDir);
+        } catch (IOException e) {
+            logError("Error locking the executable download: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean downloadExecutable(Release release, File cacheDir) {
+        if (release.hash != null && store.contains(release.hash, release.size) && (!forceUpdate || store.verify(release.hash))) {
+            log("Version " + release.version + " has the same content as a cached executable, skipping download.");
+            return true;
+        }
+
+        File download = new File(cacheDir, name + "-v" + release.version + ".download");
+        String hash = downloadPatch(release, cacheDir, download);
+        if (hash == null) {
+            hash = downloadCompressed(release, download);
+        }
+        if (hash == null) {
+            log("Downloading executable from: " + release.url + " to: " + download.getAbsolutePath());
+            StartupMetrics.Phase phase = metrics.begin(StartupMetrics.DOWNLOAD);
+            Downloader downloader = new Downloader(this);
+            hash = downloader.download(release.url, download);
+            phase.end(downloader.getTransferredBytes(), downloader.getWrittenBytes());
+            if (hash == null) {
                 return false;
             }
-        } else {
-            File[] files = cacheDir.listFiles();
-            if (files != null) {
-                for (File f : files) {
-                    if (f.isFile() && f.getName().endsWith(".jar") && f.getName().startsWith(name + "-v")) {
-                        if (!f.delete()) {
-                            logError("Failed to delete local old executable: " + f.getAbsolutePath());
-                        }
-                    }
+            if ((release.hash != null && !release.hash.equals(hash)) || (release.size >= 0 && download.length() != release.size)) {
+                logError("Downloaded executable failed verification (expected " + release.hash + ", got " + hash + ").");
+                if (!download.delete()) {
+                    logError("Failed to delete invalid download: " + download.getAbsolutePath());
                 }
+                return false;
             }
         }
 
-        File destination = new File(cacheDir, name + "-v" + latestVersion + ".jar");
-
-        log("Downloading executable from: " + executableUrl + " to: " + destination.getAbsolutePath());
-        HttpURLConnection connection = null;
         try {
-            if (destination.exists() && !destination.delete()) {
-                logError("Failed to delete existing file at destination. Aborting download.");
-                return false;
+            File executable = store.publish(download, hash);
+            release.hash = hash;
+            log("Stored executable as: " + executable.getAbsolutePath());
+            return true;
+        } catch (Exception e) {
+            logError("Error storing downloaded executable: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private String downloadCompressed(Release release, File destination) {
+        if (release.compressedUrl == null) {
+            return null;
+        }
+        log("Downloading compressed executable from: " + release.compressedUrl + " to: " + destination.getAbsolutePath());
+        StartupMetrics.Phase phase = metrics.begin(StartupMetrics.DOWNLOAD);
+        Downloader downloader = new Downloader(this);
+        String hash = downloader.download(release.compressedUrl, destination, true);
+        phase.end(downloader.getTransferredBytes(), downloader.getWrittenBytes());
+        if (hash == null) {
+            logError("Compressed download failed, downloading the uncompressed executable instead.");
+            return null;
+        }
+        if ((release.compressedChecksum != null && !Checksums.matches(release.compressedChecksum, downloader.getTransferredHash()))
+                || (release.hash != null && !release.hash.equals(hash)) || (release.size >= 0 && destination.length() != release.size)) {
+            logError("Compressed executable failed verification, downloading the uncompressed executable instead.");
+            if (!destination.delete()) {
+                logError("Failed to delete invalid download: " + destination.getAbsolutePath());
             }
-            URL url = new URI(executableUrl).toURL();
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(20000);
-            connection.setRequestProperty("User-Agent", "ApexBootstrapper/1.0");
+            return null;
+        }
+        return hash;
+    }
+
+    private boolean downloadLibraries(Release release) {
+        if (release.libraries.isEmpty()) {
+            return true;
+        }
+        StartupMetrics.Phase phase = metrics.begin(StartupMetrics.DOWNLOAD);
+        LibraryInstaller installer = new LibraryInstaller(this, store, new File(path, "cache"));
+        boolean success = installer.install(release.libraries);
+        phase.end(installer.getTransferredBytes(), installer.getWrittenBytes());
+        return success;
+    }
 
-            int code = connection.getResponseCode();
-            if (code < 200 || code >= 300) {
-                logError("HTTP error downloading executable: " + code + " - " + connection.getResponseMessage());
+    /**
+     * Installs the managed runtime of this platform if the release names one. Processes sharing the path install it
+     * only once.
+     * @return boolean installSuccess
+     */
+    private boolean downloadRuntime(Release release) {
+        ManagedRuntime runtime = release.runtime;
+        if (runtime == null || runtime.isInstalled()) {
+            return true;
+        }
+        setStatus("Installing Java runtime " + runtime.getVersion() + "...");
+        try (LockFile ignored = lockArtifact("runtime-" + runtime.getVersion())) {
+            return runtime.isInstalled() || runtime.install(this, new File(path, "cache"), metrics);
+        } catch (IOException e) {
+            logError("Error locking the runtime download: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean containsAll(List<String> hashes) {
+        for (String hash : hashes) {
+            if (!store.contains(hash, -1)) {
                 return false;
             }
+        }
+        return true;
+    }
 
-            try (InputStream in = connection.getInputStream();
-                 FileOutputStream outputStream = new FileOutputStream(destination)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
+    /**
+     * Reads a number from the local meta data, or from the metadata if the local meta data does not set it.
+     * @return long value, or -1 if neither sets it
+     */
+    private long readLong(String key, JsonObject metadata) {
+        synchronized (this) {
+            if (localMetaData.has(key)) {
+                return localMetaData.get(key).getAsLong();
+            }
+        }
+        return metadata.has(key) ? metadata.get(key).getAsLong() : -1;
+    }
+
+    /**
+     * Reads a flag from the local meta data, or from the metadata if the local meta data does not set it.
+     * @return boolean value, or the default value if neither sets it
+     */
+    private boolean readBoolean(String key, JsonObject metadata, boolean defaultValue) {
+        synchronized (this) {
+            if (localMetaData.has(key)) {
+                return localMetaData.get(key).getAsBoolean();
+            }
+        }
+        return metadata.has(key) ? metadata.get(key).getAsBoolean() : defaultValue;
+    }
+
+    private static List<String> readHashes(JsonObject source, String key) {
+        List<String> hashes = new ArrayList<>();
+        if (source.has(key) && source.get(key).isJsonArray()) {
+            for (JsonElement element : source.getAsJsonArray(key)) {
+                if (ArtifactStore.isValidHash(element.getAsString())) {
+                    hashes.add(element.getAsString().toLowerCase());
                 }
             }
-            log("Download completed successfully.");
-            return true;
+        }
+        return hashes;
+    }
+
+    private static JsonArray toJsonArray(List<String> values) {
+        JsonArray array = new JsonArray();
+        for (String value : values) {
+            array.add(value);
+        }
+        return array;
+    }
+
+    private String downloadPatch(Release release, File cacheDir, File destination) {
+        File base = new File(getExecutablePath());
+        if (release.patchUrl == null || !base.exists()) {
+            return null;
+        }
+        File patch = new File(cacheDir, name + "-v" + currentVersion + "-v" + release.version + ".patch");
+        log("Downloading patch from: " + release.patchUrl + " to: " + patch.getAbsolutePath());
+        StartupMetrics.Phase phase = metrics.begin(StartupMetrics.PATCH);
+        Downloader downloader = new Downloader(this);
+        try {
+            if (downloader.download(release.patchUrl, patch) == null) {
+                logError("Patch download failed, downloading the full executable instead.");
+                return null;
+            }
+            if (destination.exists() && !destination.delete()) {
+                logError("Failed to delete existing file at destination. Skipping patch.");
+                return null;
+            }
+            String checksum;
+            try (InputStream in = new FileInputStream(patch)) {
+                checksum = DeltaPatch.apply(in, base, destination);
+            }
+            if (!Checksums.matches(release.patchChecksum, checksum) || (release.hash != null && !release.hash.equals(checksum))) {
+                logError("Patched executable failed verification, downloading the full executable instead.");
+                if (!destination.delete()) {
+                    logError("Failed to delete invalid patched executable: " + destination.getAbsolutePath());
+                }
+                return null;
+            }
+            log("Patch applied successfully.");
+            return checksum;
         } catch (Exception e) {
-            logError("Error downloading executable: " + e.getMessage());
-            return false;
+            logError("Error applying patch: " + e.getMessage());
+            if (destination.exists() && !destination.delete()) {
+                logError("Failed to delete invalid patched executable: " + destination.getAbsolutePath());
+            }
+            return null;
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            phase.end(downloader.getTransferredBytes());
+            if (patch.exists() && !Downloader.getStateFile(patch).exists() && !patch.delete()) {
+                logError("Failed to delete patch file: " + patch.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Runs a cleanup of the cache unless another process is downloading into it. Old files of a skipped cleanup stay in
+     * the cache until a later cleanup.
+     */
+    private void cleanup(Runnable cleanup) {
+        try (LockFile lock = LockFile.tryLock(store.getLockFile(CACHE_LOCK), false)) {
+            if (lock == null) {
+                log("Another launcher is downloading into the cache, skipping cleanup.");
+                return;
+            }
+            cleanup.run();
+        } catch (IOException e) {
+            logError("Error locking the cache: " + e.getMessage());
+        }
+    }
+
+    private void deleteOldExecutables(String previousHash, List<String> previousLibraries) {
+        cleanup(() -> {
+            evictVersions(previousHash, previousLibraries);
+            deleteTemporaryFiles();
+            ManagedRuntime.cleanup(this, new File(path, "runtime"), runtime);
+        });
+    }
+
+    /**
+     * Deletes the files of the previous version unless it is a retained good version, and the files of good versions
+     * evicted by the retention limits. Files of the installed and the staged version are never deleted.
+     */
+    private void evictVersions(String previousHash, List<String> previousLibraries) {
+        Set<String> pinned = new HashSet<>();
+        synchronized (this) {
+            if (currentHash != null) {
+                pinned.add(currentHash);
+            }
+            pinned.addAll(installedLibraries);
+            if (localMetaData.has("stagedHash")) {
+                pinned.add(localMetaData.get("stagedHash").getAsString());
             }
+            pinned.addAll(readHashes(localMetaData, "stagedLibraries"));
+        }
+        Set<String> released = history.evict(pinned);
+        if (previousHash != null) {
+            released.add(previousHash);
         }
+        released.addAll(previousLibraries);
+        released.removeAll(pinned);
+        released.removeAll(history.getHashes());
+        for (String hash : released) {
+            if (!store.delete(hash)) {
+                logError("Failed to delete local old executable: " + store.getFile(hash).getAbsolutePath());
+            }
+        }
+        saveLocalMetaData();
     }
 
+    private void deleteTemporaryFiles() {
+        File[] files = new File(path, "cache").listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String fileName = f.getName();
+                if (f.isFile() && fileName.startsWith(name + "-v") && (fileName.endsWith(".jar") || fileName.endsWith(".download") || fileName.endsWith(".patch") || fileName.endsWith(".part"))) {
+                    if (!f.delete()) {
+                        logError("Failed to delete local old executable: " + f.getAbsolutePath());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Launches the executable and supervises it. The executable is checked by the {@link JarVerifier} first, a damaged
+     * one is deleted and the fallback version is launched instead. An exit code of {@code -2}, which a forked process
+     * reports as {@code 254} on POSIX systems, restarts the application according to the {@link RestartPolicy}. With
+     * {@code warmStandby} enabled, a standby JVM is prepared while the application runs, so a restart does not wait for
+     * a new JVM to boot and load the application's classes. The {@code restart} phase of the startup metrics records
+     * how long each restart took after the backoff.
+     * @return int exitCode of the last run
+     */
     @Override
     public int launch() {
         String executablePath = getExecutablePath();
         if (!new File(executablePath).exists()) {
             logError("Executable not found at path: " + executablePath);
-            return -1;
+            return hasFallback() ? launchFallback() : -1;
         }
-        try {
-            ProcessBuilder processBuilder = new ProcessBuilder();
-            processBuilder.command().add("java");
-            processBuilder.command().add("-jar");
-            processBuilder.command().add(executablePath);
-            if (args != null) {
-                for (String arg : args) {
-                    processBuilder.command().add(arg);
-                }
+        File executable = new File(executablePath);
+        if (!checkExecutable(executable).join()) {
+            if (!executable.delete()) {
+                logError("Failed to delete damaged executable: " + executablePath);
             }
-            processBuilder.inheritIO();
-            Process process = processBuilder.start();
+            JarVerifier.getMarker(executable).delete();
+            logError("The executable is damaged, it will be downloaded again on next launch.");
+            VersionHistory.Entry fallback = history.getFallback();
+            return fallback != null && !fallback.hash.equals(currentHash) ? launchFallback() : -1;
+        }
+        RestartPolicy restartPolicy = new RestartPolicy(maxRestarts, restartBackoff);
+        CompletableFuture<WarmStandby> standby = CompletableFuture.completedFuture(null);
+        jvmOptions.setRuntimeHome(useRuntime());
+        try {
+            LaunchStrategy strategy = createLaunchStrategy();
+            StartupMetrics.Phase phase = metrics.begin(StartupMetrics.PROCESS_START);
+            LaunchStrategy.Launch launch = strategy.start(executable, args);
+            boolean forked = !(strategy instanceof InProcessLauncher);
+            phase.end();
+            metrics.markChildProcessStart();
+            writeMetrics();
             log("Launching " + executablePath + "...");
-            int exitCode = process.waitFor();
-            if (exitCode == -2) {
-                return launch();
+            while (true) {
+                if (warmStandby && !LaunchStrategy.IN_PROCESS.equalsIgnoreCase(launchStrategy)) {
+                    standby = WarmStandby.startLater(() -> startStandby(executable));
+                }
+                long started = System.currentTimeMillis();
+                applicationRunning = true;
+                int exitCode;
+                try {
+                    exitCode = launch.waitFor();
+                } finally {
+                    applicationRunning = false;
+                }
+                WarmStandby ready = WarmStandby.take(standby);
+                long delay = RestartPolicy.isRestart(exitCode, forked) ? restartPolicy.nextDelay(System.currentTimeMillis() - started) : -1;
+                if (delay < 0) {
+                    if (ready != null) {
+                        ready.close();
+                    }
+                    if (RestartPolicy.isRestart(exitCode, forked)) {
+                        logError("The application requested too many restarts in a row, not restarting it again.");
+                    } else if (exitCode == 0 && currentHash != null) {
+                        history.markGood(currentVersion, currentHash, installedLibraries);
+                        cleanup(() -> evictVersions(null, Collections.emptyList()));
+                    }
+                    return exitCode;
+                }
+                if (delay > 0) {
+                    log("Restarting in " + delay + " ms...");
+                    Thread.sleep(delay);
+                }
+                StartupMetrics.Phase restart = metrics.begin(StartupMetrics.RESTART);
+                launch = ready != null ? ready.start(args) : null;
+                boolean warm = launch != null;
+                if (!warm) {
+                    launch = createLaunchStrategy().start(executable, args);
+                }
+                restart.end();
+                log("Restarted " + executablePath + (warm ? " from the warm standby" : "") + " in " + restart.getDurationNanos() / 1_000_000 + " ms.");
+                writeMetrics();
             }
-            return exitCode;
         } catch (Exception e) {
             logError("Error launching executable: " + e.getMessage());
             return -1;
+        } finally {
+            WarmStandby ready = WarmStandby.take(standby);
+            if (ready != null) {
+                ready.close();
+            }
+        }
+    }
+
+    private File useRuntime() {
+        if (runtime == null) {
+            return null;
+        }
+        File home = runtime.use();
+        if (home == null) {
+            log("Java runtime " + runtime.getVersion() + " is not installed, launching with the configured Java instead.");
+        }
+        return home;
+    }
+
+    private WarmStandby startStandby(File executable) {
+        if (!WarmStandby.supports(executable)) {
+            return null;
+        }
+        LaunchStrategy strategy = createLaunchStrategy();
+        if (!(strategy instanceof ProcessLauncher)) {
+            return null;
+        }
+        try {
+            return ((ProcessLauncher) strategy).startStandby(this, executable, new File(path, "cache"));
+        } catch (Exception e) {
+            logError("Failed to start the warm standby JVM: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private LaunchStrategy createLaunchStrategy() {
+        if (LaunchStrategy.IN_PROCESS.equalsIgnoreCase(launchStrategy)) {
+            return new InProcessLauncher(this, jvmOptions.getMainClass(), getLibraryFiles());
+        }
+        if (!LaunchStrategy.PROCESS.equalsIgnoreCase(launchStrategy)) {
+            logError("Unknown launch strategy " + launchStrategy + ", launching in a new process.");
+        }
+        CdsArchive cdsArchive = null;
+        if (classDataSharing && currentHash != null) {
+            cdsArchive = new CdsArchive(this, new File(path, "cache"));
+            cdsArchive.cleanup(store);
         }
+        return new ProcessLauncher(jvmOptions, cdsArchive, currentHash, getLibraryFiles());
     }
 
+    private void writeMetrics() {
+        if (metricsFile != null) {
+            try {
+                metrics.writeReport(metricsFile);
+            } catch (Exception e) {
+                logError("Error writing startup metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    public StartupMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Launches the newest version that exited cleanly before. The fallback is read from the local meta data and the
+     * artifact store only, so it starts without network access.
+     * @return int exitCode
+     */
     @Override
     public int launchFallback() {
-        logError("This bootstrapper does not have a fallback version.");
-        return -1;
+        VersionHistory.Entry fallback = history.getFallback();
+        if (fallback == null) {
+            logError("This bootstrapper does not have a fallback version.");
+            return -1;
+        }
+        log("Launching fallback version " + fallback.version + "...");
+        currentVersion = fallback.version;
+        currentHash = fallback.hash;
+        installedLibraries = fallback.libraries;
+        return launch();
     }
 
-    private void log(String message) {
+    void log(String message) {
         if (outputLogs) {
             System.out.println("[APEX-BOOTSTRAPPER] " + message);
         }
     }
 
-    private void logError(String message) {
+    void logError(String message) {
         if (outputErrors) {
             System.err.println("[APEX-BOOTSTRAPPER] " + message);
         }
     }
 
-    private final JLabel label = new JLabel("Checking for updates...");
+    /**
+     * Shows the frame on the event dispatch thread, so the constructor continues while Swing is loaded.
+     * @return CompletableFuture that completes once the frame is shown or could not be shown
+     */
+    private CompletableFuture<Void> showFrameLater() {
+        CompletableFuture<Void> shown = new CompletableFuture<>();
+        SwingUtilities.invokeLater(() -> {
+            try {
+                showFrame();
+            } catch (Throwable e) {
+                logError("Could not show the bootstrapper frame: " + e.getMessage());
+            } finally {
+                shown.complete(null);
+            }
+        });
+        return shown;
+    }
 
     public void showFrame() {
-        if (bootstrapperFrame == null) {
-            bootstrapperFrame = new JFrame("Apex Bootstrapper");
-            bootstrapperFrame.getRootPane().putClientProperty("JRootPane.titleBarBackground", Color.black);
-            bootstrapperFrame.getRootPane().putClientProperty("JRootPane.titleBarForeground", Color.white);
-            bootstrapperFrame.getRootPane().setBackground(Color.black);
-            bootstrapperFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
-            JProgressBar progressBar = new JProgressBar();
-            progressBar.setIndeterminate(true);
-            JPanel panel = new JPanel();
-            panel.setBackground(null);
-            panel.setLayout(new BorderLayout());
-            bootstrapperFrame.setLayout(new BorderLayout());
-            label.setBorder(BorderFactory.createEmptyBorder(0, 0, 4, 0));
-            label.setForeground(Color.white);
-            panel.add(label, BorderLayout.CENTER);
-            panel.add(progressBar, BorderLayout.SOUTH);
-            bootstrapperFrame.add(panel, BorderLayout.CENTER);
-            panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
-            bootstrapperFrame.setSize(350, 100);
-            bootstrapperFrame.setResizable(false);
-            bootstrapperFrame.setLocationRelativeTo(null);
-            bootstrapperFrame.setVisible(true);
-        } else {
-            bootstrapperFrame.setVisible(true);
+        if (progressReporter == ProgressReporter.NONE) {
+            StartupMetrics.Phase lookAndFeel = metrics.begin(StartupMetrics.LOOK_AND_FEEL);
+            ProgressReporter reporter = new SwingProgressReporter();
+            lookAndFeel.end();
+            setProgressReporter(reporter);
         }
+        progressReporter.show();
     }
 
+    /**
+     * Hides the frame. The integrity check of the executable starts first, so it runs while the frame is torn down.
+     */
     public void hideFrame() {
-        if (bootstrapperFrame != null) {
-            bootstrapperFrame.setVisible(false);
-            bootstrapperFrame.dispose();
-            bootstrapperFrame = null;
-            System.gc();
+        File executable = new File(getExecutablePath());
+        if (executable.isFile()) {
+            checkExecutable(executable);
+        }
+        frameReady.join();
+        progressReporter.hide();
+    }
+
+    /**
+     * Starts the integrity check of the given executable, unless it is already checked or running. Disabled with
+     * {@code verifyExecutable} set to false.
+     * @return CompletableFuture that completes with false if the executable is damaged
+     */
+    private synchronized CompletableFuture<Boolean> checkExecutable(File executable) {
+        if (executableCheck == null || !executable.equals(checkedExecutable)) {
+            checkedExecutable = executable;
+            executableCheck = !verifyExecutable ? CompletableFuture.completedFuture(true) : CompletableFuture.supplyAsync(() -> {
+                StartupMetrics.Phase phase = metrics.begin(StartupMetrics.VERIFY);
+                JarVerifier verifier = new JarVerifier(this);
+                boolean intact = verifier.verify(executable);
+                phase.end(executable.length(), verifier.getInflatedBytes());
+                return intact;
+            });
+        }
+        return executableCheck;
+    }
+
+    @Override
+    public void addDownloadListener(DownloadListener listener) {
+        if (listener != null) {
+            downloadListeners.add(listener);
+        }
+    }
+
+    @Override
+    public void removeDownloadListener(DownloadListener listener) {
+        downloadListeners.remove(listener);
+    }
+
+    void fireDownloadProgress(DownloadProgress progress) {
+        progressReporter.onProgress(progress);
+        for (DownloadListener listener : downloadListeners) {
+            listener.onProgress(progress);
+        }
+    }
+
+    public ProgressReporter getProgressReporter() {
+        return progressReporter;
+    }
+
+    /**
+     * Sets the reporter and shows it the last status, which may have been set while the frame was still being created.
+     */
+    public void setProgressReporter(ProgressReporter progressReporter) {
+        synchronized (statusLock) {
+            this.progressReporter = progressReporter != null ? progressReporter : ProgressReporter.NONE;
+            if (status != null) {
+                this.progressReporter.setStatus(status);
+            }
+        }
+    }
+
+    private void setStatus(String status) {
+        synchronized (statusLock) {
+            this.status = status;
+            progressReporter.setStatus(status);
         }
     }
 
@@ -490,7 +1350,86 @@ public class ApexBootstrapper implements Bootstrapper {
         return name;
     }
 
+    Mirrors getMirrors() {
+        return mirrors;
+    }
+
+    /**
+     * Sets download rate limits in bytes per second that take precedence over the metadata and the local meta data.
+     * Zero disables a limit, a negative value keeps the configured one.
+     */
+    public void setRateLimits(long rateLimit, long backgroundRateLimit) {
+        this.rateLimitOverride = rateLimit;
+        this.backgroundRateLimitOverride = backgroundRateLimit;
+    }
+
+    /**
+     * Resolves the current download limit. Downloads run at {@code rateLimit} while nothing else is running, and back
+     * off to {@code backgroundRateLimit} as soon as the launched application is running, so background updates do
+     * not compete with its traffic. Without a background limit, background downloads use a quarter of the foreground
+     * limit.
+     * @return long bytesPerSecond, zero or less for no limit
+     */
+    long getRateLimit() {
+        long foreground = rateLimitOverride >= 0 ? rateLimitOverride : rateLimit;
+        if (!applicationRunning) {
+            return foreground;
+        }
+        long background = backgroundRateLimitOverride >= 0 ? backgroundRateLimitOverride : backgroundRateLimit;
+        return background >= 0 ? background : foreground / 4;
+    }
+
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    HttpTransport getTransport() {
+        return prepareTransport().join();
+    }
+
+    /**
+     * Starts creating the transport for metadata and downloads in the background. The java.net.http client initialises
+     * TLS when it is built, which is too slow for launches that request nothing, so it is only created once a request is
+     * likely: for an update check, or once an update is pending.
+     */
+    private CompletableFuture<HttpTransport> prepareTransport() {
+        synchronized (transportLock) {
+            if (transport == null) {
+                transport = CompletableFuture.supplyAsync(() -> HttpTransport.create(this));
+            }
+            return transport;
+        }
+    }
+
+    private List<File> getLibraryFiles() {
+        List<File> files = new ArrayList<>();
+        for (String hash : installedLibraries) {
+            files.add(store.getFile(hash));
+        }
+        return files;
+    }
+
     public String getExecutablePath() {
+        if (currentHash != null) {
+            return store.getFile(currentHash).getPath();
+        }
         return path + File.separator + "cache" + File.separator + name + "-v" + getCurrentVersion() + ".jar";
     }
+
+    /**
+     * A version that metadata offers for download, kept apart from the launch configuration of the session.
+     */
+    private static class Release {
+
+        String version;
+        String hash = null;
+        long size = -1;
+        String url = "";
+        String compressedUrl = null;
+        String compressedChecksum = null;
+        String patchUrl = null;
+        String patchChecksum = null;
+        List<LibraryInstaller.Library> libraries = new ArrayList<>();
+        ManagedRuntime runtime = null;
+    }
 }
@@ -0,0 +1,455 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts zip and tar archives, optionally gzip compressed, with a pool of workers. Zip entries are decompressed by
+ * the workers in parallel. Tar archives can only be read in order, so one thread streams through the archive and hands
+ * the files to the workers to write, holding at most {@value #MAX_PENDING_BYTES} bytes in memory. Larger files are
+ * written by the reading thread directly.
+ * <p>
+ * Entries that would end up outside the target directory are rejected. Tar archives keep their file modes and symbolic
+ * links. Zip archives carry no file modes through {@code java.util.zip}, so on POSIX systems the files in {@code bin}
+ * directories and the launcher helpers in {@code lib} are made executable.
+ */
+class ArchiveExtractor {
+
+    static final int MAX_WORKERS = 4;
+
+    private static final int MAX_PENDING_BYTES = 64 * 1024 * 1024;
+    private static final int MAX_QUEUED_FILE = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BLOCK_SIZE = 512;
+    private static final Set<String> EXECUTABLE_LIBRARIES = new HashSet<>(Arrays.asList("jspawnhelper", "jexec"));
+
+    private final boolean posix = !System.getProperty("os.name").toLowerCase().contains("win");
+    private final AtomicLong extractedBytes = new AtomicLong();
+
+    /**
+     * @param format {@code zip}, {@code tar} or {@code tar.gz}
+     * @return Number of files extracted
+     */
+    int extract(File archive, String format, File target) throws IOException {
+        if (!target.exists() && !target.mkdirs()) {
+            throw new IOException("Failed to create directory: " + target.getAbsolutePath());
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors())), runnable -> {
+            Thread thread = new Thread(runnable, "ApexBootstrapper-Extract-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            if ("zip".equalsIgnoreCase(format)) {
+                return extractZip(archive, target.getCanonicalFile(), executor);
+            }
+            try (InputStream in = new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE)) {
+                InputStream tar = "tar".equalsIgnoreCase(format) ? in : new GZIPInputStream(in, BUFFER_SIZE);
+                return extractTar(tar, target.getCanonicalFile(), executor);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Derives the format from the file name of an archive URL.
+     * @return String format, or null if it is not a supported archive
+     */
+    static String getFormat(String url) {
+        String name = url.toLowerCase();
+        int query = name.indexOf('?');
+        if (query >= 0) {
+            name = name.substring(0, query);
+        }
+        if (name.endsWith(".zip")) {
+            return "zip";
+        }
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+            return "tar.gz";
+        }
+        if (name.endsWith(".tar")) {
+            return "tar";
+        }
+        return null;
+    }
+
+    long getExtractedBytes() {
+        return extractedBytes.get();
+    }
+
+    private int extractZip(File archive, File target, ExecutorService executor) throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            List<Future<Void>> futures = new ArrayList<>();
+            int count = 0;
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File file = resolve(target, entry.getName());
+                if (entry.isDirectory()) {
+                    mkdirs(file);
+                    continue;
+                }
+                count++;
+                futures.add(executor.submit(() -> {
+                    mkdirs(file.getParentFile());
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        write(in, file);
+                    }
+                    if (posix && isExecutable(file)) {
+                        file.setExecutable(true, false);
+                    }
+                    return null;
+                }));
+            }
+            await(futures);
+            return count;
+        }
+    }
+
+    private int extractTar(InputStream in, File target, ExecutorService executor) throws IOException {
+        List<Future<Void>> futures = new ArrayList<>();
+        List<Link> links = new ArrayList<>();
+        Semaphore pending = new Semaphore(MAX_PENDING_BYTES);
+        byte[] header = new byte[BLOCK_SIZE];
+        String longName = null;
+        String longLink = null;
+        int count = 0;
+        while (readFully(in, header)) {
+            if (isZeroBlock(header)) {
+                break;
+            }
+            String name = longName != null ? longName : getName(header);
+            String linkName = longLink != null ? longLink : getString(header, 157, 100);
+            longName = null;
+            longLink = null;
+            long size = getOctal(header, 124, 12);
+            int mode = (int) getOctal(header, 100, 8);
+            char type = (char) header[156];
+            long padding = (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+
+            if (type == 'L' || type == 'K' || type == 'x') {
+                String value = new String(readBytes(in, size), StandardCharsets.UTF_8);
+                skip(in, padding);
+                if (type == 'L') {
+                    longName = trimNull(value);
+                } else if (type == 'K') {
+                    longLink = trimNull(value);
+                } else {
+                    longName = getPaxValue(value, "path");
+                    longLink = getPaxValue(value, "linkpath");
+                }
+                continue;
+            }
+
+            File file = resolve(target, name);
+            if (type == '5') {
+                mkdirs(file);
+            } else if (type == '1') {
+                // hard links name a path in the archive, symbolic links a path relative to the link
+                links.add(new Link(file, resolve(target, linkName), null));
+            } else if (type == '2') {
+                if (new File(linkName).isAbsolute()) {
+                    throw new IOException("Archive entry links outside of the target directory: " + name);
+                }
+                links.add(new Link(file, resolve(target, new File(file.getParentFile(), linkName)), linkName));
+            } else if (type == '0' || type == '\0' || type == '7') {
+                count++;
+                mkdirs(file.getParentFile());
+                if (size <= MAX_QUEUED_FILE) {
+                    int length = (int) size;
+                    acquire(pending, length);
+                    byte[] content;
+                    try {
+                        content = readBytes(in, size);
+                    } catch (IOException e) {
+                        pending.release(length);
+                        throw e;
+                    }
+                    futures.add(executor.submit(() -> {
+                        try {
+                            write(new ByteArrayInputStream(content), file);
+                            setMode(file, mode);
+                        } finally {
+                            pending.release(length);
+                        }
+                        return null;
+                    }));
+                } else {
+                    write(new BoundedInputStream(in, size), file);
+                    setMode(file, mode);
+                }
+            } else {
+                skip(in, size);
+            }
+            skip(in, padding);
+        }
+        await(futures);
+        for (Link link : links) {
+            createLink(link);
+        }
+        return count;
+    }
+
+    /**
+     * Creates links once all files exist. Hard links, and symbolic links on systems without them, are copies.
+     */
+    private void createLink(Link link) throws IOException {
+        mkdirs(link.file.getParentFile());
+        Files.deleteIfExists(link.file.toPath());
+        if (link.symbolicName != null && posix) {
+            Files.createSymbolicLink(link.file.toPath(), new File(link.symbolicName).toPath());
+        } else if (link.target.isFile()) {
+            Files.copy(link.target.toPath(), link.file.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    private static File resolve(File target, String name) throws IOException {
+        return resolve(target, new File(target, name));
+    }
+
+    private static File resolve(File target, File file) throws IOException {
+        Path path = file.getAbsoluteFile().toPath().normalize();
+        if (!path.startsWith(target.toPath())) {
+            throw new IOException("Archive entry is outside of the target directory: " + file.getPath());
+        }
+        return path.toFile();
+    }
+
+    private static boolean isExecutable(File file) {
+        File parent = file.getParentFile();
+        return parent != null && (parent.getName().equals("bin") || (parent.getName().equals("lib") && EXECUTABLE_LIBRARIES.contains(file.getName())));
+    }
+
+    private void setMode(File file, int mode) throws IOException {
+        if (!posix || mode == 0) {
+            return;
+        }
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] values = PosixFilePermission.values();
+        for (int i = 0; i < 9; i++) {
+            if ((mode & (1 << (8 - i))) != 0) {
+                permissions.add(values[i]);
+            }
+        }
+        try {
+            Files.setPosixFilePermissions(file.toPath(), permissions);
+        } catch (UnsupportedOperationException e) {
+            file.setExecutable((mode & 0111) != 0, false);
+        }
+    }
+
+    private void write(InputStream in, File file) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0;
+        try (OutputStream out = new FileOutputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+        }
+        extractedBytes.addAndGet(total);
+    }
+
+    private static void mkdirs(File directory) throws IOException {
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Failed to create directory: " + directory.getAbsolutePath());
+        }
+    }
+
+    private static void await(List<Future<Void>> futures) throws IOException {
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (java.util.concurrent.ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting.");
+        }
+    }
+
+    private static void acquire(Semaphore pending, int bytes) throws InterruptedIOException {
+        try {
+            pending.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while extracting.");
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+            if (read == -1) {
+                if (offset == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated tar archive.");
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    private static byte[] readBytes(InputStream in, long size) throws IOException {
+        byte[] bytes = new byte[(int) size];
+        if (size > 0 && !readFully(in, bytes)) {
+            throw new EOFException("Truncated tar archive.");
+        }
+        return bytes;
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Truncated tar archive.");
+                }
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getName(byte[] header) {
+        String name = getString(header, 0, 100);
+        String prefix = getString(header, 345, 155);
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String getString(byte[] header, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end++;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a numeric header field, which is octal text or, for large values, a big-endian binary number flagged by
+     * the high bit of its first byte.
+     */
+    private static long getOctal(byte[] header, int offset, int length) {
+        long value = 0;
+        if ((header[offset] & 0x80) != 0) {
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (header[i] & 0xFF);
+            }
+            return value;
+        }
+        int i = offset;
+        while (i < offset + length && (header[i] == ' ' || header[i] == 0)) {
+            i++;
+        }
+        for (; i < offset + length && header[i] >= '0' && header[i] <= '7'; i++) {
+            value = value * 8 + (header[i] - '0');
+        }
+        return value;
+    }
+
+    private static String trimNull(String value) {
+        int end = value.indexOf('\0');
+        return end >= 0 ? value.substring(0, end) : value;
+    }
+
+    /**
+     * Reads a value from pax extended header records of the form {@code "<length> <key>=<value>\n"}.
+     */
+    private static String getPaxValue(String records, String key) {
+        for (String record : records.split("\n")) {
+            int space = record.indexOf(' ');
+            int equals = record.indexOf('=');
+            if (space >= 0 && equals > space && record.substring(space + 1, equals).equals(key)) {
+                return record.substring(equals + 1);
+            }
+        }
+        return null;
+    }
+
+    private static class Link {
+
+        final File file;
+        final File target;
+        final String symbolicName;
+
+        private Link(File file, File target, String symbolicName) {
+            this.file = file;
+            this.target = target;
+            this.symbolicName = symbolicName;
+        }
+    }
+
+    /**
+     * Limits reads to the content of one tar entry.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long size) {
+            super(in);
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated tar archive.");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read == -1) {
+                throw new EOFException("Truncated tar archive.");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+            // the archive stream stays open for the next entry
+        }
+    }
+}
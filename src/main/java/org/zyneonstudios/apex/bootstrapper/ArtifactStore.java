@@ -0,0 +1,81 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Content-addressed store for downloaded artifacts. Every file is stored under its SHA-256 hash, so a file is only
+ * published after its content was verified and identical content is never downloaded twice.
+ */
+class ArtifactStore {
+
+    private final File directory;
+
+    ArtifactStore(File cacheDir) {
+        this.directory = new File(cacheDir, "objects");
+    }
+
+    static boolean isValidHash(String sha256) {
+        return sha256 != null && sha256.matches("[0-9a-fA-F]{64}");
+    }
+
+    /**
+     * Resolves the lock file of the given artifact or cache-wide key. Lock files live next to the store and are never
+     * deleted.
+     * @return File
+     */
+    File getLockFile(String key) {
+        return new File(new File(directory.getParentFile(), "locks"), key.toLowerCase() + ".lock");
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    File getFile(String sha256) {
+        if (!isValidHash(sha256)) {
+            throw new IllegalArgumentException("Invalid SHA-256 hash: " + sha256);
+        }
+        return new File(directory, sha256.toLowerCase() + ".jar");
+    }
+
+    boolean contains(String sha256, long size) {
+        if (!isValidHash(sha256)) {
+            return false;
+        }
+        File file = getFile(sha256);
+        return file.isFile() && (size < 0 || file.length() == size);
+    }
+
+    boolean verify(String sha256) {
+        try {
+            return contains(sha256, -1) && sha256.equalsIgnoreCase(Checksums.sha256(getFile(sha256)));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    File publish(File file, String sha256) throws IOException {
+        File target = getFile(sha256);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create artifact store: " + directory.getAbsolutePath());
+        }
+        AtomicFiles.move(file, target);
+        return target;
+    }
+
+    /**
+     * Deletes the artifact together with the marker of its integrity check.
+     * @return true if the artifact no longer exists
+     */
+    boolean delete(String sha256) {
+        if (!isValidHash(sha256)) {
+            return true;
+        }
+        File marker = JarVerifier.getMarker(getFile(sha256));
+        if (marker.exists()) {
+            marker.delete();
+        }
+        return !getFile(sha256).exists() || getFile(sha256).delete();
+    }
+}
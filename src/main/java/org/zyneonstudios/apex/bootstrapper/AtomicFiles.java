@@ -0,0 +1,48 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replaces files so that readers in other processes see either the old or the new content, never a partial write.
+ */
+final class AtomicFiles {
+
+    private AtomicFiles() {}
+
+    static void write(File target, String content) throws IOException {
+        write(target, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void write(File target, byte[] content) throws IOException {
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        File temporary = File.createTempFile(target.getName() + ".", ".tmp", parent);
+        try {
+            try (FileOutputStream out = new FileOutputStream(temporary)) {
+                out.write(content);
+                out.getFD().sync();
+            }
+            move(temporary, target);
+        } finally {
+            if (temporary.exists() && !temporary.delete()) {
+                temporary.deleteOnExit();
+            }
+        }
+    }
+
+    static void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -21,7 +21,8 @@ public interface Bootstrapper {
     String getJsonUrl();
 
     /**
-     * Gets the metadata JSON object of the desired project's bootstrapper.
+     * Gets the metadata JSON object of the desired project's bootstrapper. For manifests that list several products,
+     * this is the entry of the installed product and release channel.
      * @return String metadataJsonObject
      */
     String getJson();
@@ -80,6 +81,21 @@ public interface Bootstrapper {
      */
     int launch();
 
+    /**
+     * Adds a listener that receives the byte-level progress of the bootstrapper's downloads. Bootstrappers that do not
+     * report progress ignore it.
+     * @param listener the listener to add
+     */
+    default void addDownloadListener(DownloadListener listener) {
+    }
+
+    /**
+     * Removes a previously added download listener.
+     * @param listener the listener to remove
+     */
+    default void removeDownloadListener(DownloadListener listener) {
+    }
+
     /**
      * Launches the fallback version of the desired project and returns the exit code when the projects stops.
      * @return int exitCode
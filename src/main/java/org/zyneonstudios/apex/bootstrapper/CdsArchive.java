@@ -0,0 +1,229 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Manages a dynamic AppCDS archive per cached executable and Java runtime under {@code cache/cds}. The first launch of a
+ * version dumps its loaded classes with {@code -XX:ArchiveClassesAtExit}, later launches map them with
+ * {@code -XX:SharedArchiveFile}. The archive name contains the executable's hash and a key of the runtime and the
+ * libraries on the classpath, so a new version or a changed runtime never uses a stale archive. Dynamic archives need
+ * Java 13, older runtimes launch without the flags. Runtimes whose version is unknown get them together with
+ * {@code -XX:+IgnoreUnrecognizedVMOptions}, which would otherwise hide mistyped options of the metadata.
+ */
+class CdsArchive {
+
+    private static final long STALE_DUMP_AGE = 24 * 60 * 60 * 1000;
+    private static final int DYNAMIC_ARCHIVE_VERSION = 13;
+
+    private final ApexBootstrapper bootstrapper;
+    private final File directory;
+    private File pendingDump = null;
+    private File pendingArchive = null;
+
+    CdsArchive(ApexBootstrapper bootstrapper, File cacheDir) {
+        this.bootstrapper = bootstrapper;
+        this.directory = new File(cacheDir, "cds");
+    }
+
+    /**
+     * Resolves the JVM arguments that use or create the archive for the given executable, libraries and runtime.
+     * @return List of JVM arguments, empty if no archive can be used
+     */
+    List<String> prepare(File javaExecutable, String executableHash, List<File> libraries) {
+        List<String> arguments = new ArrayList<>();
+        String runtimeKey = getRuntimeKey(javaExecutable, libraries);
+        if (executableHash == null || runtimeKey == null) {
+            return arguments;
+        }
+        int version = getFeatureVersion(javaExecutable);
+        if (version >= 0 && version < DYNAMIC_ARCHIVE_VERSION) {
+            bootstrapper.log("Java " + version + " has no dynamic CDS archives, launching without class data sharing.");
+            return arguments;
+        }
+        if (!hasBaseArchive(javaExecutable)) {
+            bootstrapper.log("The Java runtime has no base CDS archive, launching without class data sharing.");
+            return arguments;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            bootstrapper.logError("Failed to create CDS archive directory: " + directory.getAbsolutePath());
+            return arguments;
+        }
+        File archive = new File(directory, executableHash + "-" + runtimeKey + ".jsa");
+        if (version < 0) {
+            arguments.add("-XX:+IgnoreUnrecognizedVMOptions");
+        }
+        if (archive.isFile()) {
+            bootstrapper.log("Using class data sharing archive: " + archive.getName());
+            arguments.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        } else {
+            bootstrapper.log("Creating class data sharing archive on exit: " + archive.getName());
+            pendingArchive = archive;
+            deleteStaleDumps(archive);
+            pendingDump = new File(directory, archive.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+            arguments.add("-XX:ArchiveClassesAtExit=" + pendingDump.getAbsolutePath());
+        }
+        return arguments;
+    }
+
+    /**
+     * Resolves the JVM arguments that use an existing archive, without creating one if there is none. Used for JVMs
+     * that may never run the application, like a warm standby.
+     * @return List of JVM arguments, empty if there is no archive
+     */
+    List<String> reuse(File javaExecutable, String executableHash, List<File> libraries) {
+        List<String> arguments = new ArrayList<>();
+        String runtimeKey = getRuntimeKey(javaExecutable, libraries);
+        int version = getFeatureVersion(javaExecutable);
+        if (executableHash == null || runtimeKey == null || (version >= 0 && version < DYNAMIC_ARCHIVE_VERSION) || !hasBaseArchive(javaExecutable)) {
+            return arguments;
+        }
+        File archive = new File(directory, executableHash + "-" + runtimeKey + ".jsa");
+        if (archive.isFile()) {
+            if (version < 0) {
+                arguments.add("-XX:+IgnoreUnrecognizedVMOptions");
+            }
+            arguments.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        }
+        return arguments;
+    }
+
+    /**
+     * Deletes dumps of crashed launches. Every launch dumps to its own file, so dumps that concurrent launches are still
+     * writing are left alone.
+     */
+    private void deleteStaleDumps(File archive) {
+        File[] files = directory.listFiles((dir, fileName) -> fileName.startsWith(archive.getName() + ".") && fileName.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (System.currentTimeMillis() - file.lastModified() > STALE_DUMP_AGE && !file.delete()) {
+                bootstrapper.logError("Failed to delete stale CDS archive: " + file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Publishes an archive that was dumped by the finished launch. Incomplete dumps are discarded.
+     */
+    void complete() {
+        if (pendingDump == null) {
+            return;
+        }
+        try {
+            if (pendingDump.isFile() && pendingDump.length() > 0) {
+                AtomicFiles.move(pendingDump, pendingArchive);
+            } else if (pendingDump.exists() && !pendingDump.delete()) {
+                bootstrapper.logError("Failed to delete incomplete CDS archive: " + pendingDump.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            bootstrapper.logError("Error storing CDS archive: " + e.getMessage());
+        } finally {
+            pendingDump = null;
+            pendingArchive = null;
+        }
+    }
+
+    /**
+     * Deletes archives of executables that are no longer in the artifact store.
+     */
+    void cleanup(ArtifactStore store) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            int separator = name.indexOf('-');
+            if (separator > 0 && !store.contains(name.substring(0, separator), -1)) {
+                file.setWritable(true);
+                if (!file.delete()) {
+                    bootstrapper.logError("Failed to delete old CDS archive: " + file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Dynamic archives are layered on the default CDS archive of the runtime. Runtimes without one, like most runtimes
+     * built with jlink, refuse to start with the dynamic archive flags.
+     */
+    static boolean hasBaseArchive(File javaExecutable) {
+        File bin;
+        try {
+            bin = javaExecutable.getCanonicalFile().getParentFile();
+        } catch (IOException e) {
+            return false;
+        }
+        File home = bin != null ? bin.getParentFile() : null;
+        if (home == null) {
+            return false;
+        }
+        for (File directory : new File[]{new File(home, "lib/server"), new File(home, "bin/server"), new File(home, "lib/client"), new File(home, "bin/client")}) {
+            File[] archives = directory.listFiles((dir, fileName) -> fileName.startsWith("classes") && fileName.endsWith(".jsa"));
+            if (archives != null && archives.length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the feature version of the runtime from the {@code JAVA_VERSION} of its {@code release} file.
+     * @return int version, like 8 or 21, or -1 if it is unknown
+     */
+    static int getFeatureVersion(File javaExecutable) {
+        try {
+            File bin = javaExecutable.getCanonicalFile().getParentFile();
+            File release = bin != null && bin.getParentFile() != null ? new File(bin.getParentFile(), "release") : null;
+            if (release == null || !release.isFile()) {
+                return -1;
+            }
+            for (String line : Files.readAllLines(release.toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("JAVA_VERSION=")) {
+                    String version = line.substring("JAVA_VERSION=".length()).replace("\"", "").trim();
+                    if (version.startsWith("1.")) {
+                        version = version.substring(2);
+                    }
+                    int end = 0;
+                    while (end < version.length() && Character.isDigit(version.charAt(end))) {
+                        end++;
+                    }
+                    return end > 0 ? Integer.parseInt(version.substring(0, end)) : -1;
+                }
+            }
+            return -1;
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static String getRuntimeKey(File javaExecutable, List<File> libraries) {
+        if (javaExecutable == null || !javaExecutable.isFile()) {
+            return null;
+        }
+        try {
+            File executable = javaExecutable.getCanonicalFile();
+            MessageDigest digest = Checksums.sha256();
+            digest.update(executable.getPath().getBytes(StandardCharsets.UTF_8));
+            digest.update(Long.toString(executable.lastModified()).getBytes(StandardCharsets.UTF_8));
+            File home = executable.getParentFile() != null ? executable.getParentFile().getParentFile() : null;
+            File release = home != null ? new File(home, "release") : null;
+            if (release != null && release.isFile()) {
+                digest.update(Files.readAllBytes(release.toPath()));
+            }
+            for (File library : libraries) {
+                digest.update(library.getName().getBytes(StandardCharsets.UTF_8));
+            }
+            return Checksums.toHex(digest.digest()).substring(0, 16);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Binary delta between two versions of an executable. A patch is a gzip stream starting with the magic {@code APXP},
+ * a format version and the length of the base file, followed by instructions that either copy a range of the base
+ * file or insert literal bytes. Patches are applied in a single streaming pass, so the rebuilt file never has to be
+ * held in memory.
+ */
+final class DeltaPatch {
+
+    private static final byte[] MAGIC = "APXP".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT_VERSION = 1;
+    private static final int BLOCK_SIZE = 2048;
+
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_DATA = 2;
+
+    private DeltaPatch() {}
+
+    /**
+     * Rebuilds a file from the given base file and patch stream.
+     * @return String sha256 of the written output
+     */
+    static String apply(InputStream patch, File base, File output) throws IOException {
+        MessageDigest digest = Checksums.sha256();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(patch)));
+             RandomAccessFile old = new RandomAccessFile(base, "r");
+             OutputStream out = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(output)), digest)) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readUnsignedByte() != FORMAT_VERSION) {
+                throw new IOException("Unsupported patch format.");
+            }
+            if (in.readLong() != old.length()) {
+                throw new IOException("Patch does not match the installed version.");
+            }
+            byte[] buffer = new byte[8192];
+            int op;
+            while ((op = in.readUnsignedByte()) != OP_END) {
+                if (op == OP_COPY) {
+                    long offset = in.readLong();
+                    int length = in.readInt();
+                    if (offset < 0 || length < 0 || offset + length > old.length()) {
+                        throw new IOException("Patch references data outside of the base file.");
+                    }
+                    old.seek(offset);
+                    while (length > 0) {
+                        int count = Math.min(buffer.length, length);
+                        old.readFully(buffer, 0, count);
+                        out.write(buffer, 0, count);
+                        length -= count;
+                    }
+                } else if (op == OP_DATA) {
+                    int length = in.readInt();
+                    while (length > 0) {
+                        int count = Math.min(buffer.length, length);
+                        in.readFully(buffer, 0, count);
+                        out.write(buffer, 0, count);
+                        length -= count;
+                    }
+                } else {
+                    throw new IOException("Unknown patch instruction: " + op);
+                }
+            }
+        }
+        return Checksums.toHex(digest.digest());
+    }
+
+    /**
+     * Creates a patch that turns the base file into the target file. Matching is done on fixed-size blocks of the base
+     * file with a rolling checksum, so content that only moved inside the file (like unchanged jar entries) is reused.
+     */
+    static void create(File base, File target, OutputStream patch) throws IOException {
+        byte[] old = Files.readAllBytes(base.toPath());
+        byte[] now = Files.readAllBytes(target.toPath());
+
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK_SIZE <= old.length; i += BLOCK_SIZE) {
+            blocks.putIfAbsent(rollingHash(old, i), i);
+        }
+
+        GZIPOutputStream gzip = new GZIPOutputStream(patch);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+        out.write(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeLong(old.length);
+
+        int literalStart = 0;
+        int position = 0;
+        int a = 0;
+        int b = 0;
+        boolean rolling = false;
+        while (position + BLOCK_SIZE <= now.length) {
+            if (!rolling) {
+                int hash = rollingHash(now, position);
+                a = hash & 0xFFFF;
+                b = hash >>> 16;
+                rolling = true;
+            }
+            Integer match = blocks.get(a | (b << 16));
+            if (match != null && regionEquals(old, match, now, position, BLOCK_SIZE)) {
+                int length = BLOCK_SIZE;
+                while (match + length < old.length && position + length < now.length && old[match + length] == now[position + length]) {
+                    length++;
+                }
+                writeData(out, now, literalStart, position - literalStart);
+                out.writeByte(OP_COPY);
+                out.writeLong(match);
+                out.writeInt(length);
+                position += length;
+                literalStart = position;
+                rolling = false;
+                continue;
+            }
+            if (position + BLOCK_SIZE < now.length) {
+                int removed = now[position] & 0xFF;
+                int added = now[position + BLOCK_SIZE] & 0xFF;
+                a = (a - removed + added) & 0xFFFF;
+                b = (b - BLOCK_SIZE * removed + a) & 0xFFFF;
+            }
+            position++;
+        }
+        writeData(out, now, literalStart, now.length - literalStart);
+        out.writeByte(OP_END);
+        out.flush();
+        gzip.finish();
+    }
+
+    private static void writeData(DataOutputStream out, byte[] data, int offset, int length) throws IOException {
+        if (length > 0) {
+            out.writeByte(OP_DATA);
+            out.writeInt(length);
+            out.write(data, offset, length);
+        }
+    }
+
+    private static int rollingHash(byte[] data, int offset) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            int value = data[offset + i] & 0xFF;
+            a += value;
+            b += (BLOCK_SIZE - i) * value;
+        }
+        return (a & 0xFFFF) | ((b & 0xFFFF) << 16);
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,14 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+/**
+ * Receives the progress of the bootstrapper's downloads. Callbacks are rate-limited and run on the downloading thread,
+ * so implementations must return quickly and hand UI work over to their own thread.
+ */
+public interface DownloadListener {
+
+    /**
+     * Called periodically while a download is running and once when it has finished.
+     * @param progress the current progress of the download
+     */
+    void onProgress(DownloadProgress progress);
+}
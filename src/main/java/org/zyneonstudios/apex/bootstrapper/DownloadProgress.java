@@ -0,0 +1,83 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+/**
+ * Snapshot of a running download.
+ */
+public final class DownloadProgress {
+
+    private final String url;
+    private final long transferredBytes;
+    private final long totalBytes;
+    private final long bytesPerSecond;
+    private final boolean finished;
+
+    public DownloadProgress(String url, long transferredBytes, long totalBytes, long bytesPerSecond, boolean finished) {
+        this.url = url;
+        this.transferredBytes = transferredBytes;
+        this.totalBytes = totalBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.finished = finished;
+    }
+
+    /**
+     * Gets the url that is downloaded.
+     * @return String url
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Gets the number of bytes of the file that are already on disk, including bytes of a resumed download.
+     * @return long transferredBytes
+     */
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * Gets the size of the file, or -1 if the server did not report it.
+     * @return long totalBytes
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Gets the current download speed.
+     * @return long bytesPerSecond
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Gets the estimated remaining time in seconds, or -1 if it is unknown.
+     * @return long etaSeconds
+     */
+    public long getEtaSeconds() {
+        if (totalBytes < 0 || bytesPerSecond <= 0) {
+            return -1;
+        }
+        return Math.max(0, totalBytes - transferredBytes) / bytesPerSecond;
+    }
+
+    /**
+     * Gets the progress as a fraction between 0 and 1, or -1 if the size is unknown.
+     * @return double fraction
+     */
+    public double getFraction() {
+        if (totalBytes <= 0) {
+            return -1;
+        }
+        return Math.min(1.0, (double) transferredBytes / totalBytes);
+    }
+
+    /**
+     * Checks if the download has finished.
+     * @return boolean finished
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+}
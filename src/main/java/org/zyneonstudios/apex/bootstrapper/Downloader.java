@@ -0,0 +1,643 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads a single artifact, splitting it into HTTP range segments that are fetched in parallel when the server
+ * supports it. Segment progress is persisted in a {@code .part} sidecar next to the destination, so an interrupted
+ * download resumes where it stopped on the next launch; a damaged sidecar restarts the download. Servers that answer a
+ * range request with the whole file are downloaded with a single stream instead. Files are preallocated to their
+ * announced length and written through a {@link FileChannel}: single streams with one {@link FileChannel#transferFrom}
+ * call, which copies through one transfer buffer for the whole file, and segments through a direct buffer that is
+ * reused for every read, so the persisted position never runs ahead of the written data. The SHA-256 of the downloaded
+ * file is computed while the data is copied: single streams hash every buffer, segments hash their buffers while they
+ * continue the hashed prefix of the file, and data that arrived ahead of it is read back from the page cache once the
+ * prefix reaches it. Gzip compressed artifacts are decompressed into the destination in the same pass as they are
+ * downloaded. Every read passes the shared {@link RateLimiter} of the bootstrapper.
+ */
+class Downloader {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    static final int DEFAULT_SEGMENTS = 4;
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final long STATE_SAVE_INTERVAL = 1000;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 20000;
+
+    private final ApexBootstrapper bootstrapper;
+    private final int segments;
+    private final AtomicLong transferred = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private String transferredHash = null;
+    private int readTimeout = READ_TIMEOUT;
+
+    Downloader(ApexBootstrapper bootstrapper) {
+        this(bootstrapper, DEFAULT_SEGMENTS);
+    }
+
+    Downloader(ApexBootstrapper bootstrapper, int segments) {
+        this.bootstrapper = bootstrapper;
+        this.segments = Math.max(1, segments);
+    }
+
+    /**
+     * Sets how long a read of a response may block before the download fails.
+     */
+    void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    long getTransferredBytes() {
+        return transferred.get();
+    }
+
+    /**
+     * Gets the number of bytes written to the destination, which differs from the transferred bytes for compressed
+     * downloads.
+     * @return long writtenBytes
+     */
+    long getWrittenBytes() {
+        return written.get();
+    }
+
+    /**
+     * Gets the SHA-256 of the transferred data of the last compressed download.
+     * @return String sha256, or null if nothing was decompressed
+     */
+    String getTransferredHash() {
+        return transferredHash;
+    }
+
+    static File getStateFile(File destination) {
+        return new File(destination.getParentFile(), destination.getName() + ".part");
+    }
+
+    /**
+     * Downloads the given url to the destination file. The url is resolved against the mirrors of the update server,
+     * the fastest mirror that answers is used and the others are tried if its download fails.
+     * @return String sha256 of the downloaded file, or null if the download failed
+     */
+    String download(String urlString, File destination) {
+        return download(urlString, destination, false);
+    }
+
+    /**
+     * Downloads the given url to the destination file, decompressing it with gzip if requested.
+     * @return String sha256 of the written file, or null if the download failed
+     */
+    String download(String urlString, File destination, boolean gzip) {
+        Mirrors mirrors = bootstrapper.getMirrors();
+        List<String> candidates = mirrors.getCandidates(urlString);
+        Mirrors.Result<RemoteInfo> probed = mirrors.race(candidates, this::probe);
+        if (probed != null) {
+            candidates.remove(probed.url);
+            candidates.add(0, probed.url);
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            String mirror = candidates.get(i);
+            RemoteInfo info = i == 0 && probed != null ? probed.value : null;
+            if (i > 0) {
+                bootstrapper.log("Trying mirror " + Mirrors.getOrigin(mirror) + "...");
+                info = probe(mirror);
+            }
+            String hash = download(mirror, urlString, destination, info, gzip);
+            if (hash != null) {
+                return hash;
+            }
+            mirrors.record(mirror, 0, false);
+        }
+        return null;
+    }
+
+    private String download(String mirror, String urlString, File destination, RemoteInfo info, boolean gzip) {
+        File stateFile = getStateFile(destination);
+        try {
+            if (gzip) {
+                deleteIfExists(stateFile);
+                return downloadSingle(mirror, urlString, destination, true);
+            }
+            if (info == null || !info.acceptsRanges || info.length < MIN_SEGMENT_SIZE * 2 || segments == 1) {
+                if (info == null || !info.acceptsRanges) {
+                    bootstrapper.log("Server does not support ranged downloads for this file, using a single stream.");
+                }
+                deleteIfExists(stateFile);
+                return downloadSingle(mirror, urlString, destination, false);
+            }
+
+            JsonObject state = loadState(stateFile, urlString, info, destination);
+            if (state == null) {
+                deleteIfExists(destination);
+                state = createState(urlString, info);
+            } else {
+                bootstrapper.log("Resuming interrupted download from " + stateFile.getAbsolutePath());
+            }
+            return downloadSegmented(mirror, urlString, destination, stateFile, state, info.length);
+        } catch (Exception e) {
+            bootstrapper.logError("Error downloading executable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Asks the server for the size and validators of the file. Servers that answer, but do not support HEAD requests,
+     * get an info without ranges; server errors and unreachable servers fail the probe.
+     * @return RemoteInfo of the file, or null if the server could not be reached
+     */
+    private RemoteInfo probe(String urlString) {
+        try (HttpTransport.Response response = bootstrapper.getTransport().send("HEAD", urlString, Collections.emptyMap(), CONNECT_TIMEOUT, readTimeout)) {
+            int code = response.getStatus();
+            RemoteInfo info = new RemoteInfo();
+            if (code >= 500) {
+                return null;
+            } else if (code < 200 || code >= 300) {
+                info.length = -1;
+                return info;
+            }
+            info.length = response.getContentLength();
+            info.acceptsRanges = "bytes".equalsIgnoreCase(response.getHeader("Accept-Ranges"));
+            info.etag = response.getHeader("ETag");
+            info.lastModified = response.getHeader("Last-Modified");
+            return info;
+        } catch (Exception e) {
+            bootstrapper.logError("Could not probe download: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private String downloadSingle(String url, String urlString, File destination, boolean gzip) throws IOException {
+        if (destination.exists() && !destination.delete()) {
+            bootstrapper.logError("Failed to delete existing file at destination. Aborting download.");
+            return null;
+        }
+        try (HttpTransport.Response response = bootstrapper.getTransport().send("GET", url, Collections.emptyMap(), CONNECT_TIMEOUT, readTimeout)) {
+            int code = response.getStatus();
+            if (code < 200 || code >= 300) {
+                bootstrapper.logError("HTTP error downloading executable: " + code);
+                return null;
+            }
+            long length = response.getContentLength();
+            MessageDigest digest = Checksums.sha256();
+            ProgressTracker tracker = new ProgressTracker(bootstrapper::fireDownloadProgress, urlString, length, 0);
+            TransferStream transfer = new TransferStream(response.getBody(), tracker, gzip ? Checksums.sha256() : null);
+            try (InputStream in = gzip ? new GZIPInputStream(transfer, BUFFER_SIZE) : transfer;
+                 RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+                if (length > 0 && !gzip) {
+                    file.setLength(length);
+                }
+                FileChannel channel = file.getChannel();
+                ReadableByteChannel source = new DigestChannel(Channels.newChannel(in), digest);
+                long position = 0;
+                long count;
+                while ((count = channel.transferFrom(source, position, Long.MAX_VALUE - position)) > 0) {
+                    position += count;
+                    written.addAndGet(count);
+                }
+                if (length >= 0 && transfer.count != length) {
+                    throw new IOException("Download incomplete, received " + transfer.count + " of " + length + " bytes.");
+                }
+                file.setLength(position);
+                channel.force(true);
+            }
+            tracker.finish();
+            if (gzip) {
+                transferredHash = Checksums.toHex(transfer.digest.digest());
+                bootstrapper.log("Decompressed " + transfer.count + " bytes to " + written.get() + " bytes.");
+            }
+            bootstrapper.log("Download completed successfully.");
+            return Checksums.toHex(digest.digest());
+        }
+    }
+
+    private String downloadSegmented(String url, String urlString, File destination, File stateFile, JsonObject state, long length) throws Exception {
+        JsonArray array = state.getAsJsonArray("segments");
+        List<Segment> parts = new ArrayList<>();
+        for (JsonElement element : array) {
+            JsonObject object = element.getAsJsonObject();
+            parts.add(new Segment(object.get("start").getAsLong(), object.get("end").getAsLong(), object.get("position").getAsLong()));
+        }
+        bootstrapper.log("Downloading " + length + " bytes in " + parts.size() + " segments.");
+        long initialBytes = 0;
+        for (Segment segment : parts) {
+            initialBytes += segment.position.get() - segment.start;
+        }
+        ProgressTracker tracker = new ProgressTracker(bootstrapper::fireDownloadProgress, urlString, length, initialBytes);
+
+        ExecutorService executor = Executors.newFixedThreadPool(parts.size());
+        boolean rangeIgnored = false;
+        String hash = null;
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+            if (file.length() != length) {
+                file.setLength(length);
+            }
+            FileChannel channel = file.getChannel();
+            StateWriter writer = new StateWriter(stateFile, state, parts, channel);
+            writer.save();
+            SegmentHasher hasher = new SegmentHasher(parts, channel);
+
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (Segment segment : parts) {
+                if (!segment.isDone()) {
+                    futures.add(executor.submit(() -> fetchSegment(url, segment, channel, writer, hasher, tracker)));
+                }
+            }
+            boolean success = true;
+            for (Future<Boolean> future : futures) {
+                try {
+                    if (!future.get()) {
+                        success = false;
+                    }
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RangeIgnoredException) {
+                        rangeIgnored = true;
+                    } else {
+                        bootstrapper.logError("Segment download failed: " + e.getCause().getMessage());
+                    }
+                    success = false;
+                }
+            }
+            if (!rangeIgnored) {
+                writer.save();
+                if (!success) {
+                    bootstrapper.logError("Download interrupted, it will resume on next launch.");
+                    return null;
+                }
+                channel.force(true);
+                tracker.finish();
+                hash = hasher.finish();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        deleteIfExists(stateFile);
+        if (rangeIgnored) {
+            bootstrapper.log("Server ignored the range requests, downloading with a single stream instead.");
+            return downloadSingle(url, urlString, destination, false);
+        }
+        bootstrapper.log("Download completed successfully.");
+        return hash;
+    }
+
+    private boolean fetchSegment(String url, Segment segment, FileChannel channel, StateWriter writer, SegmentHasher hasher, ProgressTracker tracker) throws IOException {
+        Map<String, String> headers = Collections.singletonMap("Range", "bytes=" + segment.position.get() + "-" + segment.end);
+        try (HttpTransport.Response response = bootstrapper.getTransport().send("GET", url, headers, CONNECT_TIMEOUT, readTimeout)) {
+            int code = response.getStatus();
+            if (code == HttpURLConnection.HTTP_OK) {
+                throw new RangeIgnoredException();
+            }
+            if (code != HttpURLConnection.HTTP_PARTIAL) {
+                bootstrapper.logError("HTTP error downloading segment: " + code);
+                return false;
+            }
+            ReadableByteChannel source = Channels.newChannel(new TransferStream(response.getBody(), tracker, null));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (!segment.isDone()) {
+                long position = segment.position.get();
+                ((Buffer) buffer).clear();
+                ((Buffer) buffer).limit((int) Math.min(BUFFER_SIZE, segment.end - position + 1));
+                if (source.read(buffer) == -1) {
+                    break;
+                }
+                ((Buffer) buffer).flip();
+                int count = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                ((Buffer) buffer).flip();
+                hasher.written(position - count, buffer);
+                segment.position.set(position);
+                written.addAndGet(count);
+                writer.saveIfDue();
+            }
+            return segment.isDone();
+        }
+    }
+
+    private JsonObject createState(String urlString, RemoteInfo info) {
+        JsonObject state = new JsonObject();
+        state.addProperty("url", urlString);
+        state.addProperty("length", info.length);
+        if (info.etag != null) {
+            state.addProperty("etag", info.etag);
+        }
+        if (info.lastModified != null) {
+            state.addProperty("lastModified", info.lastModified);
+        }
+        JsonArray array = new JsonArray();
+        long size = Math.max(MIN_SEGMENT_SIZE, (info.length + segments - 1) / segments);
+        for (long start = 0; start < info.length; start += size) {
+            JsonObject segment = new JsonObject();
+            segment.addProperty("start", start);
+            segment.addProperty("end", Math.min(info.length, start + size) - 1);
+            segment.addProperty("position", start);
+            array.add(segment);
+        }
+        state.add("segments", array);
+        return state;
+    }
+
+    private JsonObject loadState(File stateFile, String urlString, RemoteInfo info, File destination) {
+        if (!stateFile.exists() || !destination.exists()) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8)) {
+            JsonObject state = GSON.fromJson(reader, JsonObject.class);
+            if (state == null || !state.has("segments")
+                    || !urlString.equals(getString(state, "url"))
+                    || state.get("length").getAsLong() != info.length
+                    || !equalsNullable(getString(state, "etag"), info.etag)
+                    || !equalsNullable(getString(state, "lastModified"), info.lastModified)) {
+                bootstrapper.log("Discarding stale download state, the remote file has changed.");
+                return null;
+            }
+            if (!isConsistent(state.getAsJsonArray("segments"), info.length)) {
+                bootstrapper.logError("Discarding damaged download state: " + stateFile.getAbsolutePath());
+                return null;
+            }
+            return state;
+        } catch (Exception e) {
+            bootstrapper.logError("Error reading download state: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Checks that the segments cover the file without gaps and that every position lies within its segment.
+     */
+    private static boolean isConsistent(JsonArray segments, long length) {
+        long next = 0;
+        for (JsonElement element : segments) {
+            JsonObject segment = element.getAsJsonObject();
+            long start = segment.get("start").getAsLong();
+            long end = segment.get("end").getAsLong();
+            long position = segment.get("position").getAsLong();
+            if (start != next || end < start || position < start || position > end + 1) {
+                return false;
+            }
+            next = end + 1;
+        }
+        return next == length;
+    }
+
+    private static String getString(JsonObject object, String key) {
+        return object.has(key) ? object.get(key).getAsString() : null;
+    }
+
+    private static boolean equalsNullable(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private void deleteIfExists(File file) {
+        if (file.exists() && !file.delete()) {
+            bootstrapper.logError("Failed to delete file: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Counts, hashes and reports the bytes as they arrive, before they are decompressed.
+     */
+    private class TransferStream extends FilterInputStream {
+        private final ProgressTracker tracker;
+        private final MessageDigest digest;
+        private long count = 0;
+
+        private TransferStream(InputStream in, ProgressTracker tracker, MessageDigest digest) {
+            super(in);
+            this.tracker = tracker;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int bytesRead = super.read(b, off, len);
+            if (bytesRead > 0) {
+                bootstrapper.getRateLimiter().acquire(bytesRead);
+                if (digest != null) {
+                    digest.update(b, off, bytesRead);
+                }
+                count += bytesRead;
+                transferred.addAndGet(bytesRead);
+                tracker.add(bytesRead);
+            }
+            return bytesRead;
+        }
+    }
+
+    /**
+     * Hashes the bytes that pass through to the file.
+     */
+    private static class DigestChannel implements ReadableByteChannel {
+        private final ReadableByteChannel channel;
+        private final MessageDigest digest;
+
+        private DigestChannel(ReadableByteChannel channel, MessageDigest digest) {
+            this.channel = channel;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            int bytesRead = channel.read(dst);
+            if (bytesRead > 0) {
+                ByteBuffer data = dst.duplicate();
+                ((Buffer) data).flip();
+                ((Buffer) data).position(start);
+                digest.update(data);
+            }
+            return bytesRead;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Thrown when a server answers a range request with the whole file.
+     */
+    private static class RangeIgnoredException extends IOException {
+
+        private RangeIgnoredException() {
+            super("The server ignored the range request.");
+        }
+    }
+
+    private static class RemoteInfo {
+        private long length;
+        private boolean acceptsRanges;
+        private String etag;
+        private String lastModified;
+    }
+
+    private static class Segment {
+        private final long start;
+        private final long end;
+        private final AtomicLong position;
+
+        private Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = new AtomicLong(position);
+        }
+
+        private boolean isDone() {
+            return position.get() > end;
+        }
+    }
+
+    /**
+     * Hashes the file in order while its segments arrive in parallel. A buffer that continues the hashed prefix is hashed
+     * right away, data written ahead of the prefix is read back from the file when the prefix reaches it. A thread that
+     * finds the hasher busy does not wait, its data is read back later instead.
+     */
+    private static class SegmentHasher {
+        private final List<Segment> parts;
+        private final FileChannel channel;
+        private final MessageDigest digest = Checksums.sha256();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long hashed = 0;
+
+        private SegmentHasher(List<Segment> parts, FileChannel channel) {
+            this.parts = parts;
+            this.channel = channel;
+        }
+
+        /**
+         * Hashes the data that was just written at the given position, before its segment position is advanced.
+         */
+        private void written(long position, ByteBuffer data) throws IOException {
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                catchUp();
+                if (position == hashed) {
+                    hashed += data.remaining();
+                    digest.update(data);
+                    catchUp();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return String sha256 of the file, once every segment is complete
+         */
+        private String finish() throws IOException {
+            lock.lock();
+            try {
+                catchUp();
+                return Checksums.toHex(digest.digest());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Hashes the data that segments wrote ahead of the hashed prefix.
+         */
+        private void catchUp() throws IOException {
+            for (Segment segment : parts) {
+                if (segment.end < hashed) {
+                    continue;
+                }
+                long available = segment.position.get();
+                while (hashed < available) {
+                    ((Buffer) buffer).clear();
+                    ((Buffer) buffer).limit((int) Math.min(BUFFER_SIZE, available - hashed));
+                    int read = channel.read(buffer, hashed);
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of download at " + hashed + ".");
+                    }
+                    ((Buffer) buffer).flip();
+                    digest.update(buffer);
+                    hashed += read;
+                }
+                if (hashed <= segment.end) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private class StateWriter {
+        private final File stateFile;
+        private final JsonObject state;
+        private final List<Segment> parts;
+        private final FileChannel channel;
+        private volatile long lastSave = 0;
+
+        private StateWriter(File stateFile, JsonObject state, List<Segment> parts, FileChannel channel) {
+            this.stateFile = stateFile;
+            this.state = state;
+            this.parts = parts;
+            this.channel = channel;
+        }
+
+        private void saveIfDue() {
+            if (System.currentTimeMillis() - lastSave >= STATE_SAVE_INTERVAL) {
+                save();
+            }
+        }
+
+        private synchronized void save() {
+            lastSave = System.currentTimeMillis();
+            try {
+                channel.force(false);
+                JsonArray array = new JsonArray();
+                for (Segment segment : parts) {
+                    JsonObject object = new JsonObject();
+                    object.addProperty("start", segment.start);
+                    object.addProperty("end", segment.end);
+                    object.addProperty("position", segment.position.get());
+                    array.add(object);
+                }
+                state.add("segments", array);
+                AtomicFiles.write(stateFile, GSON.toJson(state));
+            } catch (Exception e) {
+                bootstrapper.logError("Error saving download state: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+class HeadlessProgressReporter implements ProgressReporter {
+
+    @Override
+    public void show() {}
+
+    @Override
+    public void hide() {}
+
+    @Override
+    public void setStatus(String status) {}
+
+    @Override
+    public void onProgress(DownloadProgress progress) {}
+}
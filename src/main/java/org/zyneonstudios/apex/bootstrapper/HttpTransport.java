@@ -0,0 +1,54 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * HTTP transport shared by every download of a launch, so probe, segment, library and mirror requests to the same
+ * host reuse their connections instead of paying a new handshake each time. On runtimes that ship
+ * {@code java.net.http} the transport uses its HTTP/2 client, which multiplexes parallel requests over one connection,
+ * except for range requests, which keep one HTTP/1.1 connection per segment; older runtimes use the keep-alive pool of
+ * {@link java.net.HttpURLConnection}.
+ */
+abstract class HttpTransport {
+
+    static final String USER_AGENT = "ApexBootstrapper/1.0";
+
+    static HttpTransport create(ApexBootstrapper bootstrapper) {
+        try {
+            Class.forName("java.net.http.HttpClient");
+            HttpTransport transport = (HttpTransport) Class.forName("org.zyneonstudios.apex.bootstrapper.JavaHttpTransport").getDeclaredConstructor().newInstance();
+            bootstrapper.log("Using the java.net.http client for HTTP requests.");
+            return transport;
+        } catch (Throwable t) {
+            return new UrlConnectionTransport();
+        }
+    }
+
+    /**
+     * Sends a request and waits for the response headers. The response has to be closed to return its connection to
+     * the pool.
+     * @return Response of the server
+     */
+    abstract Response send(String method, String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException;
+
+    abstract static class Response implements Closeable {
+
+        abstract int getStatus();
+
+        abstract String getHeader(String name);
+
+        abstract InputStream getBody() throws IOException;
+
+        long getContentLength() {
+            String length = getHeader("Content-Length");
+            try {
+                return length != null ? Long.parseLong(length.trim()) : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the executable inside the bootstrapper's JVM. The jar and its libraries are loaded into a fresh child-first
+ * class loader and its {@code Main-Class} (or the configured main class) is started on a new thread. The launch ends
+ * once every non-daemon thread started after the launch (including the AWT event dispatch thread) has finished, after
+ * which the class loader is closed so a restart loads the application from scratch.
+ * <p>
+ * A {@code System.exit} call of the application ends the whole JVM with that exit code. To request a restart instead,
+ * the application sets the system property {@value #EXIT_CODE_PROPERTY} to {@code -2} and lets its threads finish.
+ */
+class InProcessLauncher implements LaunchStrategy {
+
+    static final String EXIT_CODE_PROPERTY = "apex.bootstrapper.exitCode";
+
+    private final ApexBootstrapper bootstrapper;
+    private final String mainClass;
+    private final List<File> libraries;
+
+    InProcessLauncher(ApexBootstrapper bootstrapper, String mainClass, List<File> libraries) {
+        this.bootstrapper = bootstrapper;
+        this.mainClass = mainClass;
+        this.libraries = libraries;
+    }
+
+    @Override
+    public Launch start(File executable, String[] args) throws Exception {
+        String mainClassName = mainClass != null ? mainClass : LaunchStrategy.getMainClass(executable);
+
+        URL[] urls = new URL[libraries.size() + 1];
+        urls[0] = executable.toURI().toURL();
+        for (int i = 0; i < libraries.size(); i++) {
+            urls[i + 1] = libraries.get(i).toURI().toURL();
+        }
+        System.clearProperty(EXIT_CODE_PROPERTY);
+        ChildFirstClassLoader classLoader = new ChildFirstClassLoader(urls, InProcessLauncher.class.getClassLoader());
+        Method main = Class.forName(mainClassName, false, classLoader).getMethod("main", String[].class);
+        if (!Modifier.isStatic(main.getModifiers())) {
+            classLoader.close();
+            throw new IOException("The main method of " + mainClassName + " is not static.");
+        }
+
+        Set<Thread> existingThreads = new HashSet<>(Thread.getAllStackTraces().keySet());
+        int[] exitCode = {0};
+        Thread mainThread = new Thread(() -> {
+            try {
+                main.invoke(null, (Object) (args != null ? args : new String[0]));
+            } catch (InvocationTargetException e) {
+                bootstrapper.logError("Application terminated with an exception: " + e.getCause());
+                exitCode[0] = 1;
+            } catch (Exception e) {
+                bootstrapper.logError("Error invoking main method: " + e.getMessage());
+                exitCode[0] = 1;
+            }
+        }, "main");
+        mainThread.setContextClassLoader(classLoader);
+        mainThread.start();
+
+        return () -> {
+            try {
+                mainThread.join();
+                awaitNonDaemonThreads(existingThreads);
+                String requested = System.getProperty(EXIT_CODE_PROPERTY);
+                if (requested != null) {
+                    try {
+                        exitCode[0] = Integer.parseInt(requested.trim());
+                    } catch (NumberFormatException e) {
+                        bootstrapper.logError("Ignoring invalid exit code: " + requested);
+                    }
+                }
+                return exitCode[0];
+            } finally {
+                System.clearProperty(EXIT_CODE_PROPERTY);
+                try {
+                    classLoader.close();
+                } catch (IOException e) {
+                    bootstrapper.logError("Error closing application class loader: " + e.getMessage());
+                }
+            }
+        };
+    }
+
+    private static void awaitNonDaemonThreads(Set<Thread> existingThreads) throws InterruptedException {
+        while (true) {
+            Thread running = null;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread != Thread.currentThread() && !thread.isDaemon() && thread.isAlive() && !existingThreads.contains(thread)) {
+                    running = thread;
+                    break;
+                }
+            }
+            if (running == null) {
+                return;
+            }
+            running.join();
+        }
+    }
+
+    static class ChildFirstClassLoader extends URLClassLoader {
+
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        ChildFirstClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null && !name.startsWith("java.")) {
+                    try {
+                        loaded = findClass(name);
+                    } catch (ClassNotFoundException ignore) {}
+                }
+                if (loaded == null) {
+                    return super.loadClass(name, resolve);
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+
+        @Override
+        public URL getResource(String name) {
+            URL resource = findResource(name);
+            return resource != null ? resource : super.getResource(name);
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Checks the zip structure of a cached jar before it is launched. The end of central directory record and the central
+ * directory are validated, and every entry is decompressed and compared with the CRC of the central directory. Entries
+ * are checked in parallel, in contiguous ranges so each thread reads the file sequentially. Reading every entry also
+ * loads the whole jar into the page cache, so the launched JVM does not read it from disk again.
+ * <p>
+ * The jar is read with positional reads instead of being memory-mapped: a mapping stays open until it is garbage
+ * collected, and Windows refuses to delete or replace a mapped file. A jar that passed the check gets a marker file
+ * next to it, named after the jar and so after its hash in the artifact store, which records the size and modification
+ * time of the checked file. While they match, the jar is only read into the page cache. Jars that need ZIP64 records
+ * are only read into the page cache, not validated.
+ */
+class JarVerifier {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long BYTES_PER_THREAD = 1024 * 1024;
+
+    private final ApexBootstrapper bootstrapper;
+    private final AtomicLong inflatedBytes = new AtomicLong();
+
+    JarVerifier(ApexBootstrapper bootstrapper) {
+        this.bootstrapper = bootstrapper;
+    }
+
+    /**
+     * Resolves the marker that records a successful check of the given jar.
+     * @return File
+     */
+    static File getMarker(File jar) {
+        return new File(jar.getParentFile(), jar.getName() + ".verified");
+    }
+
+    /**
+     * Only a damaged structure or an entry that does not match its checksum fails the check. Errors reading the jar
+     * are logged and the jar counts as intact, so they never delete a good install.
+     * @return true if the jar is intact or cannot be validated, false if it is damaged
+     */
+    boolean verify(File jar) {
+        long start = System.nanoTime();
+        String stamp = jar.length() + " " + jar.lastModified();
+        File marker = getMarker(jar);
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            if (isMarked(marker, stamp)) {
+                readAll(channel);
+                bootstrapper.log(jar.getName() + " was already verified, read it into the page cache in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+                return true;
+            }
+            if (marker.exists() && !marker.delete()) {
+                bootstrapper.logError("Failed to delete outdated verification marker: " + marker.getAbsolutePath());
+            }
+            long size = channel.size();
+            int tailSize = (int) Math.min(size, END_SIZE + MAX_COMMENT_SIZE);
+            ByteBuffer tail = read(channel, size - tailSize, tailSize);
+
+            int tailEnd = findEnd(tail);
+            if (tailEnd < 0) {
+                bootstrapper.logError(jar.getName() + " has no end of central directory record.");
+                return false;
+            }
+            long end = size - tailSize + tailEnd;
+            int count = getShort(tail, tailEnd + 10);
+            long centralSize = getInt(tail, tailEnd + 12);
+            long centralOffset = getInt(tail, tailEnd + 16);
+            if (count == 0xFFFF || centralSize == 0xFFFFFFFFL || centralOffset == 0xFFFFFFFFL) {
+                bootstrapper.log(jar.getName() + " is a ZIP64 archive, only reading it into the page cache.");
+                readAll(channel);
+                return true;
+            }
+            // data in front of the archive, like a launcher stub, shifts every offset
+            long base = end - centralSize - centralOffset;
+            if (base < 0) {
+                bootstrapper.logError(jar.getName() + " has an invalid central directory offset.");
+                return false;
+            }
+            ByteBuffer central = read(channel, base + centralOffset, (int) centralSize);
+            List<Entry> entries = readCentralDirectory(central, count, base);
+            if (entries == null) {
+                bootstrapper.logError(jar.getName() + " has a damaged central directory.");
+                return false;
+            }
+
+            int threads = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), size / BYTES_PER_THREAD));
+            List<List<Entry>> ranges = split(entries, threads);
+            Entry damaged = null;
+            if (ranges.size() == 1) {
+                damaged = check(channel, size, ranges.get(0));
+            } else {
+                ExecutorService executor = Executors.newFixedThreadPool(ranges.size());
+                try {
+                    List<Future<Entry>> futures = new ArrayList<>();
+                    for (List<Entry> range : ranges) {
+                        futures.add(executor.submit(() -> check(channel, size, range)));
+                    }
+                    for (Future<Entry> future : futures) {
+                        Entry result = future.get();
+                        if (damaged == null) {
+                            damaged = result;
+                        }
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+            if (damaged != null) {
+                bootstrapper.logError(jar.getName() + " is damaged, entry " + damaged.name + " does not match its checksum.");
+                return false;
+            }
+            bootstrapper.log("Verified " + entries.size() + " entries of " + jar.getName() + " on " + ranges.size() + " threads in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            try {
+                AtomicFiles.write(marker, stamp);
+            } catch (IOException e) {
+                bootstrapper.logError("Failed to write verification marker: " + e.getMessage());
+            }
+            return true;
+        } catch (Exception e) {
+            // a read error or a file locked by another program proves nothing about the jar
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            bootstrapper.logError("Could not verify " + jar.getName() + ", launching it unchecked: " + e);
+            return true;
+        }
+    }
+
+    /**
+     * @return Bytes the entries of the last check were decompressed to
+     */
+    long getInflatedBytes() {
+        return inflatedBytes.get();
+    }
+
+    private static boolean isMarked(File marker, String stamp) {
+        try {
+            return marker.isFile() && stamp.equals(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, position);
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file at " + position + ".");
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Reads the whole file sequentially, only to load it into the page cache.
+     */
+    private static void readAll(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = 0;
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            position += read;
+            ((Buffer) buffer).clear();
+        }
+    }
+
+    private static int findEnd(ByteBuffer buffer) {
+        int limit = Math.max(0, buffer.limit() - END_SIZE - MAX_COMMENT_SIZE);
+        for (int position = buffer.limit() - END_SIZE; position >= limit; position--) {
+            if (buffer.getInt(position) == END_SIGNATURE && position + END_SIZE + getShort(buffer, position + 20) == buffer.limit()) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static List<Entry> readCentralDirectory(ByteBuffer buffer, int count, long base) {
+        List<Entry> entries = new ArrayList<>(count);
+        int position = 0;
+        int end = buffer.limit();
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_SIZE > end || buffer.getInt(position) != CENTRAL_SIGNATURE) {
+                return null;
+            }
+            int nameLength = getShort(buffer, position + 28);
+            int extraLength = getShort(buffer, position + 30);
+            int commentLength = getShort(buffer, position + 32);
+            if (position + CENTRAL_SIZE + nameLength > end) {
+                return null;
+            }
+            byte[] name = new byte[nameLength];
+            ((Buffer) buffer).position(position + CENTRAL_SIZE);
+            buffer.get(name);
+            entries.add(new Entry(new String(name, StandardCharsets.UTF_8),
+                    getShort(buffer, position + 8),
+                    getShort(buffer, position + 10),
+                    getInt(buffer, position + 16),
+                    getInt(buffer, position + 20),
+                    getInt(buffer, position + 24),
+                    base + getInt(buffer, position + 42)));
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Splits the entries into contiguous ranges of about the same compressed size.
+     */
+    private static List<List<Entry>> split(List<Entry> entries, int count) {
+        long total = 0;
+        for (Entry entry : entries) {
+            total += entry.compressedSize;
+        }
+        long target = Math.max(1, total / count);
+        List<List<Entry>> ranges = new ArrayList<>();
+        List<Entry> range = new ArrayList<>();
+        long rangeSize = 0;
+        for (Entry entry : entries) {
+            range.add(entry);
+            rangeSize += entry.compressedSize;
+            if (rangeSize >= target && ranges.size() < count - 1) {
+                ranges.add(range);
+                range = new ArrayList<>();
+                rangeSize = 0;
+            }
+        }
+        if (!range.isEmpty() || ranges.isEmpty()) {
+            ranges.add(range);
+        }
+        return ranges;
+    }
+
+    /**
+     * @return First damaged entry of the range, or null if all are intact
+     */
+    private Entry check(FileChannel channel, long size, List<Entry> entries) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        byte[] input = new byte[BUFFER_SIZE];
+        byte[] output = new byte[BUFFER_SIZE];
+        try {
+            for (Entry entry : entries) {
+                long offset = entry.localOffset;
+                if (offset + LOCAL_SIZE > size) {
+                    return entry;
+                }
+                ((Buffer) header).clear();
+                readFully(channel, header, offset);
+                if (header.getInt(0) != LOCAL_SIGNATURE) {
+                    return entry;
+                }
+                long data = offset + LOCAL_SIZE + getShort(header, 26) + getShort(header, 28);
+                if (data + entry.compressedSize > size) {
+                    return entry;
+                }
+                if ((entry.flags & 1) != 0) {
+                    // encrypted entries cannot be checked
+                    continue;
+                }
+                crc.reset();
+                long inflated;
+                if (entry.method == 0) {
+                    update(channel, data, entry.compressedSize, crc, input);
+                    inflated = entry.compressedSize;
+                } else if (entry.method == 8) {
+                    try {
+                        inflated = inflate(channel, data, entry.compressedSize, inflater, crc, input, output);
+                    } catch (DataFormatException e) {
+                        return entry;
+                    }
+                } else {
+                    continue;
+                }
+                inflatedBytes.addAndGet(inflated);
+                if (inflated != entry.size || crc.getValue() != entry.crc) {
+                    return entry;
+                }
+            }
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void update(FileChannel channel, long position, long length, CRC32 crc, byte[] input) throws IOException {
+        long end = position + length;
+        while (position < end) {
+            int read = Math.min(input.length, (int) Math.min(Integer.MAX_VALUE, end - position));
+            readFully(channel, ByteBuffer.wrap(input, 0, read), position);
+            crc.update(input, 0, read);
+            position += read;
+        }
+    }
+
+    /**
+     * @return Number of decompressed bytes, or -1 if the data ends before the deflate stream
+     */
+    private static long inflate(FileChannel channel, long position, long length, Inflater inflater, CRC32 crc, byte[] input, byte[] output) throws IOException, DataFormatException {
+        inflater.reset();
+        long end = position + length;
+        long size = 0;
+        while (!inflater.finished()) {
+            if (inflater.needsInput()) {
+                if (position >= end) {
+                    return -1;
+                }
+                int read = (int) Math.min(input.length, end - position);
+                readFully(channel, ByteBuffer.wrap(input, 0, read), position);
+                position += read;
+                inflater.setInput(input, 0, read);
+            }
+            int inflated = inflater.inflate(output);
+            if (inflated == 0 && inflater.needsDictionary()) {
+                return -1;
+            }
+            crc.update(output, 0, inflated);
+            size += inflated;
+        }
+        return size;
+    }
+
+    private static int getShort(ByteBuffer buffer, int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    private static long getInt(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) & 0xFFFFFFFFL;
+    }
+
+    private static class Entry {
+
+        final String name;
+        final int flags;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localOffset;
+
+        private Entry(String name, int flags, int method, long crc, long compressedSize, long size, long localOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localOffset = localOffset;
+        }
+    }
+}
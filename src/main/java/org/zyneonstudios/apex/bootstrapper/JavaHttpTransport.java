@@ -0,0 +1,130 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport based on the {@code java.net.http} client, which negotiates HTTP/2 and multiplexes concurrent requests to
+ * the same host over one connection. Range requests are sent with HTTP/1.1 instead: the segments of one download are
+ * fetched in parallel to use more bandwidth than one connection gets, which multiplexing them over a single HTTP/2
+ * connection would defeat. The client has no read timeout for response bodies, so a watchdog closes bodies whose
+ * current read blocked for longer than the read timeout. {@link HttpTransport} only loads this class reflectively after
+ * it checked that the runtime ships the client, so the bootstrapper keeps running on Java 8. It is compiled for Java 11
+ * in a separate execution of the compiler plugin.
+ */
+class JavaHttpTransport extends HttpTransport {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ApexBootstrapper-HttpWatchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT))
+            .build();
+
+    @Override
+    Response send(String method, String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(new URI(url));
+        } catch (Exception e) {
+            throw new IOException("Invalid url: " + url, e);
+        }
+        builder.method(method, HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofMillis(connectTimeout + readTimeout))
+                .header("User-Agent", USER_AGENT);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+            if ("Range".equalsIgnoreCase(header.getKey())) {
+                builder.version(HttpClient.Version.HTTP_1_1);
+            }
+        }
+        try {
+            return new JavaHttpResponse(client.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream()), readTimeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Request interrupted: " + url, e);
+        }
+    }
+
+    private static class JavaHttpResponse extends Response {
+
+        private final HttpResponse<InputStream> response;
+        private final InputStream body;
+        private final ScheduledFuture<?> watchdog;
+        private volatile long readStarted = 0;
+
+        private JavaHttpResponse(HttpResponse<InputStream> response, int readTimeout) {
+            this.response = response;
+            this.body = new FilterInputStream(response.body()) {
+                @Override
+                public int read() throws IOException {
+                    readStarted = System.currentTimeMillis();
+                    try {
+                        return super.read();
+                    } finally {
+                        readStarted = 0;
+                    }
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    readStarted = System.currentTimeMillis();
+                    try {
+                        return super.read(b, off, len);
+                    } finally {
+                        readStarted = 0;
+                    }
+                }
+            };
+            // only a read that is blocked counts, the caller may take its time between reads, like the rate limiter
+            long interval = Math.max(1000, readTimeout / 4);
+            this.watchdog = WATCHDOG.scheduleWithFixedDelay(() -> {
+                long started = readStarted;
+                if (started != 0 && System.currentTimeMillis() - started > readTimeout) {
+                    try {
+                        close();
+                    } catch (IOException ignore) {}
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        int getStatus() {
+            return response.statusCode();
+        }
+
+        @Override
+        String getHeader(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            watchdog.cancel(false);
+            response.body().close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a bootstrap phase. {@link StartupMetrics} only loads the {@link Recorder} reflectively after
+ * it checked that the runtime ships JFR, so the bootstrapper keeps running on Java 8 builds without it.
+ */
+@Name("org.zyneonstudios.apex.bootstrapper.Phase")
+@Label("Bootstrap Phase")
+@Category("Apex Bootstrapper")
+@Description("A timed phase of the Apex Bootstrapper startup.")
+@StackTrace(false)
+class JfrPhaseEvent extends Event {
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Raw Bytes")
+    @Description("Bytes after decompression")
+    @DataAmount
+    long rawBytes;
+
+    @Label("Throughput")
+    @DataAmount(DataAmount.BYTES)
+    @Frequency
+    long throughput;
+
+    static class Recorder implements StartupMetrics.EventRecorder {
+
+        @Override
+        public Object start(String phase) {
+            JfrPhaseEvent event = new JfrPhaseEvent();
+            event.phase = phase;
+            event.begin();
+            return event;
+        }
+
+        @Override
+        public void commit(Object object, long bytes, long rawBytes, long throughput) {
+            JfrPhaseEvent event = (JfrPhaseEvent) object;
+            event.end();
+            if (event.shouldCommit()) {
+                event.bytes = Math.max(0, bytes);
+                event.rawBytes = rawBytes;
+                event.throughput = throughput;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JVM options for the launched application, read from the metadata and overridden by the local meta data. Both may
+ * contain {@code jvmArgs}, {@code mainClass}, {@code javaPath} and {@code maxHeapPercent}, plus a list of
+ * {@code jvmProfiles} that only apply on a matching {@code os}, {@code arch} and {@code minMemoryMb}/{@code maxMemoryMb}
+ * range of physical memory. A managed runtime is used instead of the {@code javaPath} of the metadata, but not instead
+ * of one set in the local meta data, even if both name the same Java.
+ * <p>
+ * Later sources override earlier ones: the metadata, its matching profiles, the local meta data and then its matching
+ * profiles. {@code jvmArgs} are merged by option, so a later {@code -Xmx}, {@code -Xss}, {@code -Xms} or {@code -Xmn}
+ * replaces an earlier one, a later {@code -XX:} option or {@code -D} property replaces the earlier one with the same
+ * name, and other arguments are only added once. The collector selectors, like {@code -XX:+UseG1GC} and
+ * {@code -XX:+UseParallelGC}, share one name, because the JVM refuses to start with more than one collector. {@code maxHeapPercent} and {@code -Xmx} replace each other the same
+ * way; if one source sets both, {@code maxHeapPercent} wins.
+ */
+class JvmOptions {
+
+    private static final String MAX_HEAP = "-Xmx";
+    private static final String[] SIZE_OPTIONS = {MAX_HEAP, "-Xms", "-Xss", "-Xmn"};
+    private static final String COLLECTOR = "-XX:UseGC";
+    private static final Set<String> COLLECTORS = new HashSet<>(Arrays.asList("UseSerialGC", "UseParallelGC",
+            "UseParallelOldGC", "UseConcMarkSweepGC", "UseG1GC", "UseZGC", "UseShenandoahGC", "UseEpsilonGC"));
+
+    private final Map<String, String> jvmArgs = new LinkedHashMap<>();
+    private String mainClass = null;
+    private String javaPath = null;
+    private boolean localJavaPath = false;
+    private File runtimeHome = null;
+    private int maxHeapPercent = -1;
+
+    static JvmOptions resolve(JsonObject metadata, JsonObject localMetaData) {
+        JvmOptions options = new JvmOptions();
+        options.apply(metadata, false);
+        options.apply(localMetaData, true);
+        return options;
+    }
+
+    private void apply(JsonObject source, boolean local) {
+        if (source == null) {
+            return;
+        }
+        applyValues(source, local);
+        if (source.has("jvmProfiles") && source.get("jvmProfiles").isJsonArray()) {
+            for (JsonElement element : source.getAsJsonArray("jvmProfiles")) {
+                if (element.isJsonObject() && matches(element.getAsJsonObject())) {
+                    applyValues(element.getAsJsonObject(), local);
+                }
+            }
+        }
+    }
+
+    private void applyValues(JsonObject source, boolean local) {
+        if (source.has("jvmArgs") && source.get("jvmArgs").isJsonArray()) {
+            for (JsonElement element : source.getAsJsonArray("jvmArgs")) {
+                String argument = element.getAsString();
+                String key = getKey(argument);
+                jvmArgs.remove(key);
+                jvmArgs.put(key, argument);
+                if (MAX_HEAP.equals(key)) {
+                    maxHeapPercent = -1;
+                }
+            }
+        }
+        if (source.has("mainClass")) {
+            mainClass = source.get("mainClass").getAsString();
+        }
+        if (source.has("javaPath")) {
+            javaPath = source.get("javaPath").getAsString();
+            localJavaPath = local;
+        }
+        if (source.has("maxHeapPercent")) {
+            maxHeapPercent = source.get("maxHeapPercent").getAsInt();
+            jvmArgs.remove(MAX_HEAP);
+        }
+    }
+
+    /**
+     * @return String the part of a JVM argument that a later argument with the same option replaces
+     */
+    private static String getKey(String argument) {
+        for (String option : SIZE_OPTIONS) {
+            if (argument.startsWith(option)) {
+                return option;
+            }
+        }
+        if (argument.startsWith("-XX:")) {
+            String name = argument.substring(4);
+            if (name.startsWith("+") || name.startsWith("-")) {
+                name = name.substring(1);
+            }
+            int value = name.indexOf('=');
+            name = value >= 0 ? name.substring(0, value) : name;
+            return COLLECTORS.contains(name) ? COLLECTOR : "-XX:" + name;
+        }
+        if (argument.startsWith("-D")) {
+            int value = argument.indexOf('=');
+            return value >= 0 ? argument.substring(0, value) : argument;
+        }
+        return argument;
+    }
+
+    static boolean matches(JsonObject profile) {
+        String os = System.getProperty("os.name").toLowerCase();
+        if (profile.has("os") && !os.contains(profile.get("os").getAsString().toLowerCase())) {
+            return false;
+        }
+        if (profile.has("arch") && !System.getProperty("os.arch").equalsIgnoreCase(profile.get("arch").getAsString())) {
+            return false;
+        }
+        if (profile.has("minMemoryMb") || profile.has("maxMemoryMb")) {
+            long memory = getPhysicalMemoryMb();
+            if (memory < 0) {
+                return false;
+            }
+            if (profile.has("minMemoryMb") && memory < profile.get("minMemoryMb").getAsLong()) {
+                return false;
+            }
+            if (profile.has("maxMemoryMb") && memory > profile.get("maxMemoryMb").getAsLong()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("deprecation")
+    static long getPhysicalMemoryMb() {
+        try {
+            OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+            if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) bean).getTotalPhysicalMemorySize() / (1024 * 1024);
+            }
+        } catch (Throwable ignore) {}
+        return -1;
+    }
+
+    List<String> getArguments() {
+        List<String> arguments = new ArrayList<>(jvmArgs.values());
+        if (maxHeapPercent > 0 && maxHeapPercent <= 100) {
+            long memory = getPhysicalMemoryMb();
+            if (memory > 0) {
+                arguments.add("-Xmx" + Math.max(64, memory * maxHeapPercent / 100) + "m");
+            }
+        }
+        return Collections.unmodifiableList(arguments);
+    }
+
+    String getMainClass() {
+        return mainClass;
+    }
+
+    /**
+     * @param runtimeHome Java home of the installed managed runtime, or null to use the configured Java
+     */
+    void setRuntimeHome(File runtimeHome) {
+        this.runtimeHome = runtimeHome;
+    }
+
+    /**
+     * Resolves the java executable. Without a managed runtime or a configured {@code javaPath} the runtime of the
+     * bootstrapper itself is used. A {@code javaPath} may point to the executable, to a Java home directory or be a
+     * command on the PATH.
+     * @return File javaExecutable
+     */
+    File getJavaExecutable() {
+        if (runtimeHome != null && !localJavaPath) {
+            return getExecutable(runtimeHome);
+        }
+        if (javaPath == null || javaPath.isEmpty()) {
+            return getExecutable(new File(System.getProperty("java.home")));
+        }
+        File file = new File(javaPath);
+        if (file.isDirectory()) {
+            return getExecutable(file);
+        }
+        if (!javaPath.contains("/") && !javaPath.contains("\\")) {
+            File command = ProcessLauncher.findOnPath(javaPath);
+            if (command != null) {
+                return command;
+            }
+        }
+        return file;
+    }
+
+    static File getExecutable(File javaHome) {
+        boolean windows = System.getProperty("os.name").toLowerCase().contains("win");
+        return new File(new File(javaHome, "bin"), windows ? "java.exe" : "java");
+    }
+}
@@ -0,0 +1,49 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+/**
+ * Starts a cached executable. The strategy is selected per product with the {@code launchStrategy} key of the
+ * metadata.
+ */
+interface LaunchStrategy {
+
+    String PROCESS = "process";
+    String IN_PROCESS = "inProcess";
+
+    /**
+     * Starts the executable without waiting for it to finish.
+     * @return Launch handle of the running application
+     */
+    Launch start(File executable, String[] args) throws Exception;
+
+    /**
+     * Reads the {@code Main-Class} attribute from the manifest of the given jar.
+     * @return String mainClass
+     */
+    static String getMainClass(File executable) throws IOException {
+        String mainClass = null;
+        try (JarFile jarFile = new JarFile(executable)) {
+            java.util.jar.Manifest manifest = jarFile.getManifest();
+            if (manifest != null) {
+                mainClass = manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS);
+            }
+        }
+        if (mainClass == null) {
+            throw new IOException("No Main-Class found in the manifest of " + executable.getName());
+        }
+        return mainClass;
+    }
+
+    interface Launch {
+
+        /**
+         * Waits until the application has stopped and releases everything it held.
+         * @return int exitCode
+         */
+        int waitFor() throws InterruptedException;
+    }
+}
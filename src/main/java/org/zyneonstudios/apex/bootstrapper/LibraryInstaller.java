@@ -0,0 +1,184 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Installs the libraries of a split artifact. Next to its main jar, the metadata can list the libraries of a version
+ * as {@code libraries: [{ "url": "...", "sha256": "...", "size": 123 }]}. Libraries are kept in the shared artifact
+ * store, so unchanged libraries are reused across versions and by every product installed in the same path, and only
+ * missing ones are downloaded by a bounded pool of workers. A library can name a gzip compressed variant as
+ * {@code "compressed": { "url": "...", "sha256": "..." }}, which is tried first.
+ */
+class LibraryInstaller {
+
+    static final int MAX_WORKERS = 4;
+
+    private final ApexBootstrapper bootstrapper;
+    private final ArtifactStore store;
+    private final File cacheDir;
+    private final AtomicLong transferred = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    LibraryInstaller(ApexBootstrapper bootstrapper, ArtifactStore store, File cacheDir) {
+        this.bootstrapper = bootstrapper;
+        this.store = store;
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Reads the library list of the given metadata. Libraries without a valid SHA-256 hash are ignored.
+     * @return List of libraries in classpath order
+     */
+    static List<Library> parse(ApexBootstrapper bootstrapper, JsonObject metadata) {
+        List<Library> libraries = new ArrayList<>();
+        if (!metadata.has("libraries") || !metadata.get("libraries").isJsonArray()) {
+            return libraries;
+        }
+        for (JsonElement element : metadata.getAsJsonArray("libraries")) {
+            JsonObject library = element.getAsJsonObject();
+            String sha256 = library.has("sha256") ? library.get("sha256").getAsString() : null;
+            if (!library.has("url") || !ArtifactStore.isValidHash(sha256)) {
+                bootstrapper.logError("Ignoring library without url or valid sha256: " + library);
+                continue;
+            }
+            Library entry = new Library(library.get("url").getAsString(), sha256.toLowerCase(), library.has("size") ? library.get("size").getAsLong() : -1);
+            if (library.has("compressed") && library.get("compressed").isJsonObject()) {
+                JsonObject compressed = library.getAsJsonObject("compressed");
+                if (compressed.has("url") && (!compressed.has("encoding") || "gzip".equalsIgnoreCase(compressed.get("encoding").getAsString()))) {
+                    entry.compressedUrl = compressed.get("url").getAsString();
+                    entry.compressedSha256 = compressed.has("sha256") ? compressed.get("sha256").getAsString() : null;
+                }
+            }
+            libraries.add(entry);
+        }
+        return libraries;
+    }
+
+    /**
+     * Downloads every library that is not in the artifact store yet.
+     * @return boolean installSuccess
+     */
+    boolean install(List<Library> libraries) {
+        Map<String, Library> missing = new LinkedHashMap<>();
+        for (Library library : libraries) {
+            if (!store.contains(library.sha256, library.size)) {
+                missing.putIfAbsent(library.sha256, library);
+            }
+        }
+        if (missing.isEmpty()) {
+            return true;
+        }
+        bootstrapper.log("Downloading " + missing.size() + " of " + libraries.size() + " libraries...");
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_WORKERS, missing.size()), runnable -> {
+            Thread thread = new Thread(runnable, "ApexBootstrapper-Library-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Library library : missing.values()) {
+                results.add(executor.submit(() -> download(library)));
+            }
+            boolean success = true;
+            for (Future<Boolean> result : results) {
+                success &= result.get();
+            }
+            return success;
+        } catch (Exception e) {
+            bootstrapper.logError("Error downloading libraries: " + e.getMessage());
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean download(Library library) {
+        try (LockFile ignored = bootstrapper.lockArtifact(library.sha256)) {
+            if (store.contains(library.sha256, library.size)) {
+                return true;
+            }
+            return fetch(library);
+        } catch (IOException e) {
+            bootstrapper.logError("Error locking library " + library.url + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean fetch(Library library) {
+        File download = new File(cacheDir, library.sha256 + ".download");
+        if (library.compressedUrl != null) {
+            Downloader downloader = new Downloader(bootstrapper, 1);
+            String hash = downloader.download(library.compressedUrl, download, true);
+            transferred.addAndGet(downloader.getTransferredBytes());
+            written.addAndGet(downloader.getWrittenBytes());
+            if (hash != null && (library.compressedSha256 == null || Checksums.matches(library.compressedSha256, downloader.getTransferredHash())) && verify(library, download, hash)) {
+                return publish(library, download, hash);
+            }
+            bootstrapper.logError("Compressed library " + library.compressedUrl + " could not be used, downloading the uncompressed library instead.");
+        }
+        Downloader downloader = new Downloader(bootstrapper, 1);
+        String hash = downloader.download(library.url, download);
+        transferred.addAndGet(downloader.getTransferredBytes());
+        written.addAndGet(downloader.getWrittenBytes());
+        if (hash == null) {
+            bootstrapper.logError("Failed to download library: " + library.url);
+            return false;
+        }
+        return verify(library, download, hash) && publish(library, download, hash);
+    }
+
+    private boolean verify(Library library, File download, String hash) {
+        if (!library.sha256.equals(hash) || (library.size >= 0 && download.length() != library.size)) {
+            bootstrapper.logError("Library " + library.url + " failed verification (expected " + library.sha256 + ", got " + hash + ").");
+            if (!download.delete()) {
+                bootstrapper.logError("Failed to delete invalid download: " + download.getAbsolutePath());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean publish(Library library, File download, String hash) {
+        try {
+            store.publish(download, hash);
+            return true;
+        } catch (Exception e) {
+            bootstrapper.logError("Error storing library " + library.url + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    long getTransferredBytes() {
+        return transferred.get();
+    }
+
+    long getWrittenBytes() {
+        return written.get();
+    }
+
+    static class Library {
+
+        final String url;
+        final String sha256;
+        final long size;
+        String compressedUrl = null;
+        String compressedSha256 = null;
+
+        Library(String url, String sha256, long size) {
+            this.url = url;
+            this.sha256 = sha256;
+            this.size = size;
+        }
+    }
+}
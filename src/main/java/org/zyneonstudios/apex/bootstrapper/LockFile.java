@@ -0,0 +1,90 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Advisory lock that coordinates bootstrapper processes sharing the same path. The lock is held on a separate
+ * {@code .lock} file, which is never deleted, so it works for files that are replaced while the lock is held. Locks
+ * are released by the operating system when a process dies.
+ */
+class LockFile implements Closeable {
+
+    private static final long RETRY_INTERVAL = 200;
+
+    private final RandomAccessFile file;
+    private final FileLock lock;
+
+    private LockFile(RandomAccessFile file, FileLock lock) {
+        this.file = file;
+        this.lock = lock;
+    }
+
+    /**
+     * Acquires the lock if no other process or thread holds it.
+     * @return LockFile, or null if the lock is held elsewhere
+     */
+    static LockFile tryLock(File file, boolean shared) throws IOException {
+        RandomAccessFile handle = open(file);
+        try {
+            FileLock lock = handle.getChannel().tryLock(0, Long.MAX_VALUE, shared);
+            if (lock != null) {
+                return new LockFile(handle, lock);
+            }
+        } catch (OverlappingFileLockException ignore) {
+            // held by another thread of this process
+        } catch (IOException e) {
+            handle.close();
+            throw e;
+        }
+        handle.close();
+        return null;
+    }
+
+    /**
+     * Waits until the lock is acquired.
+     * @return LockFile
+     */
+    static LockFile lock(File file, boolean shared) throws IOException {
+        RandomAccessFile handle = open(file);
+        try {
+            FileChannel channel = handle.getChannel();
+            while (true) {
+                try {
+                    return new LockFile(handle, channel.lock(0, Long.MAX_VALUE, shared));
+                } catch (OverlappingFileLockException e) {
+                    Thread.sleep(RETRY_INTERVAL);
+                }
+            }
+        } catch (InterruptedException e) {
+            handle.close();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for lock: " + file.getAbsolutePath(), e);
+        } catch (IOException | RuntimeException e) {
+            handle.close();
+            throw e;
+        }
+    }
+
+    private static RandomAccessFile open(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        return new RandomAccessFile(file, "rw");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            file.close();
+        }
+    }
+}
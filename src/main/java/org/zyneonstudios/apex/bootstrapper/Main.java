@@ -1,29 +1,34 @@
 package org.zyneonstudios.apex.bootstrapper;
 
-import com.formdev.flatlaf.FlatDarkLaf;
-import com.formdev.flatlaf.themes.FlatMacDarkLaf;
-import javax.swing.*;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
 
     private static ApexBootstrapper apexBootstrapper;
     private static String url = null;
+    private static final List<String> mirrors = new ArrayList<>();
     private static String path = ".";
     private static File localMetaFile = null;
     private static boolean log = false;
     private static boolean errorLog = false;
     private static boolean frame = false;
+    private static boolean launchFirst = false;
+    private static File metricsFile = null;
+    private static long rateLimit = -1;
+    private static long backgroundRateLimit = -1;
 
     public static void main(String[] args) {
         resolveData(args);
 
         if(url != null && !url.isEmpty() && localMetaFile != null) {
             try {
-                apexBootstrapper = new ApexBootstrapper(url, path, localMetaFile, args, log, errorLog);
-                if (frame) {
-                    apexBootstrapper.showFrame();
-                }
+                apexBootstrapper = new ApexBootstrapper(url, mirrors.toArray(new String[0]), path, localMetaFile, args, log, errorLog, launchFirst, frame);
+                apexBootstrapper.setMetricsFile(metricsFile);
+                apexBootstrapper.setRateLimits(rateLimit, backgroundRateLimit);
                 apexBootstrapper.update();
                 apexBootstrapper.hideFrame();
                 apexBootstrapper.launch();
@@ -46,6 +51,9 @@ public class Main {
                 case "--b-url":
                     url = args[i + 1];
                     break;
+                case "--b-mirror":
+                    mirrors.add(args[i + 1]);
+                    break;
                 case "--b-path":
                     path = args[i + 1];
                     break;
@@ -61,22 +69,60 @@ public class Main {
                 case "--b-frame":
                     frame = true;
                     break;
+                case "--b-launch-first":
+                    launchFirst = true;
+                    break;
+                case "--b-metrics":
+                    metricsFile = new File(args[i + 1]);
+                    break;
+                case "--b-rate-limit":
+                    rateLimit = Long.parseLong(args[i + 1]);
+                    break;
+                case "--b-background-rate-limit":
+                    backgroundRateLimit = Long.parseLong(args[i + 1]);
+                    break;
+                case "--b-create-patch":
+                    System.exit(createPatch(new File(args[i + 1]), new File(args[i + 2]), new File(args[i + 3])));
+                    return;
                 case "--help":
                     System.out.println("Apex Bootstrapper Help:");
                     System.out.println("--nexus-app              : Initialize with Nexus App settings.");
                     System.out.println("--b-path <path>          : Specify the local path for installation.");
                     System.out.println("Note: The following options are ignored if --nexus-app is specified.");
                     System.out.println("--b-url <url>            : *Specify the URL for the bootstrapper metadata.");
+                    System.out.println("--b-mirror <url>         : Specify a mirror of the metadata URL, can be repeated.");
                     System.out.println("--b-file <file>          : *Specify the local metadata file.");
                     System.out.println("--b-log                  : Enable logging.");
                     System.out.println("--b-error                : Enable error logging.");
                     System.out.println("--b-frame                : Show the bootstrapper frame.");
+                    System.out.println("--b-launch-first         : Launch the installed version immediately and stage updates in the background.");
+                    System.out.println("--b-metrics <file>       : Write a JSON timing report of the startup phases.");
+                    System.out.println("--b-rate-limit <bytes/s> : Limit the download rate, 0 for no limit.");
+                    System.out.println("--b-background-rate-limit <bytes/s> : Limit the download rate while the application runs.");
+                    System.out.println("--b-create-patch <base> <target> <output> : Create a delta patch between two executables and exit.");
                     System.exit(0);
                     break;
             }
         }
     }
 
+    /**
+     * @return int exitCode
+     */
+    private static int createPatch(File base, File target, File output) {
+        try {
+            try (OutputStream out = new FileOutputStream(output)) {
+                DeltaPatch.create(base, target, out);
+            }
+            System.out.println("Created patch " + output.getPath() + " (" + output.length() + " bytes).");
+            System.out.println("sha256 of target: " + Checksums.sha256(target));
+            return 0;
+        } catch (Exception ex) {
+            System.err.println("Failed to create patch: " + ex.getMessage());
+            return 1;
+        }
+    }
+
     private static void initNexusApp() {
         url = "https://zyneonstudios.github.io/apex-metadata/nexus-app/bootstrapper-metadata.json";
         localMetaFile = new File("bootstrapper-metadata.json");
@@ -0,0 +1,242 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A Java runtime that the metadata provides for the current platform, so the application does not depend on the Java
+ * installed on the system. The metadata lists one archive per platform as
+ * {@code runtimes: [{ "os": "linux", "arch": "amd64", "version": "21.0.4", "url": "...", "sha256": "...", "size": 123 }]},
+ * where {@code os} and {@code arch} match like those of {@code jvmProfiles} and the first matching entry is used. Zip,
+ * tar and gzip compressed tar archives are supported, detected from the url or set with {@code format}.
+ * <p>
+ * A runtime is installed under {@code runtime/<version>} and shared by every version of the application, so it is only
+ * downloaded again when the metadata names a new runtime. The directory contains a {@value #MARKER} file that records
+ * the archive hash and the Java home inside the archive. It is written last, so a directory without it is incomplete.
+ */
+class ManagedRuntime {
+
+    private static final String MARKER = ".apex-runtime";
+    private static final long RETENTION = 30L * 24 * 60 * 60 * 1000;
+    private static final long STALE_INSTALL_AGE = 24 * 60 * 60 * 1000;
+
+    private final String version;
+    private final String url;
+    private final String sha256;
+    private final long size;
+    private final String format;
+    private final File directory;
+
+    private ManagedRuntime(String version, String url, String sha256, long size, String format, File runtimeDir) {
+        this.version = version;
+        this.url = url;
+        this.sha256 = sha256;
+        this.size = size;
+        this.format = format;
+        this.directory = new File(runtimeDir, version.replaceAll("[^A-Za-z0-9._+-]", "_"));
+    }
+
+    /**
+     * Selects the runtime for the current platform from the {@code runtimes} of the given metadata.
+     * @return ManagedRuntime, or null if the metadata has no runtime for this platform
+     */
+    static ManagedRuntime select(ApexBootstrapper bootstrapper, JsonObject metadata, File runtimeDir) {
+        if (!metadata.has("runtimes") || !metadata.get("runtimes").isJsonArray()) {
+            return null;
+        }
+        for (JsonElement element : metadata.getAsJsonArray("runtimes")) {
+            if (!element.isJsonObject() || !JvmOptions.matches(element.getAsJsonObject())) {
+                continue;
+            }
+            JsonObject runtime = element.getAsJsonObject();
+            String sha256 = runtime.has("sha256") ? runtime.get("sha256").getAsString() : null;
+            if (!runtime.has("version") || !runtime.has("url") || !ArtifactStore.isValidHash(sha256)) {
+                bootstrapper.logError("Ignoring runtime without version, url or valid sha256: " + runtime);
+                continue;
+            }
+            String url = runtime.get("url").getAsString();
+            String format = runtime.has("format") ? runtime.get("format").getAsString() : ArchiveExtractor.getFormat(url);
+            if (format == null) {
+                bootstrapper.logError("Ignoring runtime with unknown archive format: " + url);
+                continue;
+            }
+            return new ManagedRuntime(runtime.get("version").getAsString(), url, sha256.toLowerCase(),
+                    runtime.has("size") ? runtime.get("size").getAsLong() : -1, format, runtimeDir);
+        }
+        return null;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    boolean isInstalled() {
+        JsonObject marker = readMarker();
+        return marker != null && sha256.equals(marker.get("sha256").getAsString()) && getHome(marker) != null;
+    }
+
+    /**
+     * Resolves the Java home of the installed runtime and marks the runtime as used, so cleanup keeps it.
+     * @return File javaHome, or null if the runtime is not installed
+     */
+    File use() {
+        JsonObject marker = readMarker();
+        if (marker == null || !sha256.equals(marker.get("sha256").getAsString())) {
+            return null;
+        }
+        new File(directory, MARKER).setLastModified(System.currentTimeMillis());
+        return getHome(marker);
+    }
+
+    /**
+     * Downloads the runtime archive and extracts it into a temporary directory next to the runtime, which replaces the
+     * runtime directory once it is complete. The archive is deleted afterwards.
+     * @return boolean installSuccess
+     */
+    boolean install(ApexBootstrapper bootstrapper, File cacheDir, StartupMetrics metrics) {
+        File archive = new File(cacheDir, "runtime-" + sha256 + ".download");
+        StartupMetrics.Phase download = metrics.begin(StartupMetrics.DOWNLOAD);
+        Downloader downloader = new Downloader(bootstrapper);
+        String hash = downloader.download(url, archive);
+        download.end(downloader.getTransferredBytes(), downloader.getWrittenBytes());
+        if (hash == null) {
+            bootstrapper.logError("Failed to download Java runtime " + version + ".");
+            return false;
+        }
+        if (!sha256.equals(hash) || (size >= 0 && archive.length() != size)) {
+            bootstrapper.logError("Java runtime " + version + " failed verification (expected " + sha256 + ", got " + hash + ").");
+            delete(bootstrapper, archive);
+            return false;
+        }
+
+        File temporary = new File(directory.getParentFile(), directory.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+        StartupMetrics.Phase extract = metrics.begin(StartupMetrics.EXTRACT);
+        ArchiveExtractor extractor = new ArchiveExtractor();
+        try {
+            long start = System.nanoTime();
+            int files = extractor.extract(archive, format, temporary);
+            String home = findHome(temporary);
+            if (home == null) {
+                throw new IOException("The archive does not contain a Java runtime.");
+            }
+            JsonObject marker = new JsonObject();
+            marker.addProperty("version", version);
+            marker.addProperty("sha256", sha256);
+            marker.addProperty("home", home);
+            AtomicFiles.write(new File(temporary, MARKER), marker.toString());
+            if (directory.exists()) {
+                deleteRecursively(directory.toPath());
+            }
+            AtomicFiles.move(temporary, directory);
+            extract.end(archive.length(), extractor.getExtractedBytes());
+            bootstrapper.log("Installed Java runtime " + version + " (" + files + " files) in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            return true;
+        } catch (IOException e) {
+            bootstrapper.logError("Error installing Java runtime " + version + ": " + e.getMessage());
+            extract.end();
+            try {
+                deleteRecursively(temporary.toPath());
+            } catch (IOException ignore) {
+                // removed by a later cleanup
+            }
+            return false;
+        } finally {
+            delete(bootstrapper, archive);
+        }
+    }
+
+    /**
+     * Deletes runtimes that no launch used for a month, except the given one, and installs that did not complete.
+     */
+    static void cleanup(ApexBootstrapper bootstrapper, File runtimeDir, ManagedRuntime current) {
+        File[] files = runtimeDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (current != null && file.equals(current.directory)) {
+                continue;
+            }
+            File marker = new File(file, MARKER);
+            long age = System.currentTimeMillis() - (marker.isFile() ? marker.lastModified() : file.lastModified());
+            if (age > (marker.isFile() ? RETENTION : STALE_INSTALL_AGE)) {
+                try {
+                    deleteRecursively(file.toPath());
+                    bootstrapper.log("Deleted unused Java runtime: " + file.getName());
+                } catch (IOException e) {
+                    bootstrapper.logError("Failed to delete unused Java runtime " + file.getAbsolutePath() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private JsonObject readMarker() {
+        File marker = new File(directory, MARKER);
+        if (!marker.isFile()) {
+            return null;
+        }
+        try {
+            JsonObject object = JsonParser.parseString(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+            return object.has("sha256") && object.has("home") ? object : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private File getHome(JsonObject marker) {
+        File home = new File(directory, marker.get("home").getAsString());
+        return JvmOptions.getExecutable(home).isFile() ? home : null;
+    }
+
+    /**
+     * Archives usually wrap the runtime in a directory, and macOS runtimes keep it in {@code Contents/Home}.
+     * @return Path of the Java home relative to the extracted archive, or null if there is none
+     */
+    private static String findHome(File extracted) {
+        List<String> candidates = new ArrayList<>();
+        candidates.add("");
+        String[] children = extracted.list();
+        if (children != null) {
+            for (String child : children) {
+                candidates.add(child);
+                candidates.add(child + "/Contents/Home");
+            }
+        }
+        for (String candidate : candidates) {
+            if (JvmOptions.getExecutable(new File(extracted, candidate)).isFile()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static void delete(ApexBootstrapper bootstrapper, File file) {
+        if (file.exists() && !file.delete()) {
+            bootstrapper.logError("Failed to delete runtime archive: " + file.getAbsolutePath());
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path, java.nio.file.LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (Files.isDirectory(path, java.nio.file.LinkOption.NOFOLLOW_LINKS)) {
+            try (Stream<Path> children = Files.list(path)) {
+                for (Path child : (Iterable<Path>) children::iterator) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+}
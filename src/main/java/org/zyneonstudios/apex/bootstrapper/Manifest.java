@@ -0,0 +1,165 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Streaming reader for the update manifest. A manifest is either a single product entry, or a document that lists
+ * several products with their release channels:
+ * <pre>
+ * { "products": { "&lt;product&gt;": { "name": "...", "channels": { "stable": { ... }, "beta": { ... } } } } }
+ * </pre>
+ * Only the entry of the requested product and channel is materialised; other products, other channels and any version
+ * {@code history} are skipped while reading. Keys next to {@code products} and {@code channels} are defaults for the
+ * selected entry. A product without the requested channel falls back to {@code stable}.
+ */
+class Manifest {
+
+    static final String DEFAULT_CHANNEL = "stable";
+
+    private static final String PRODUCTS = "products";
+    private static final String CHANNELS = "channels";
+    private static final String HISTORY = "history";
+
+    private final ApexBootstrapper bootstrapper;
+    private final String product;
+    private final String channel;
+    private CountingInputStream counter = null;
+
+    Manifest(ApexBootstrapper bootstrapper, String product, String channel) {
+        this.bootstrapper = bootstrapper;
+        this.product = product;
+        this.channel = channel != null ? channel : DEFAULT_CHANNEL;
+    }
+
+    /**
+     * Reads the entry of the configured product and channel from the given manifest stream.
+     * @return JsonObject entry, empty if the manifest does not list the product
+     */
+    JsonObject read(InputStream stream) throws IOException {
+        counter = new CountingInputStream(stream);
+        JsonReader in = new JsonReader(new InputStreamReader(counter, StandardCharsets.UTF_8));
+        JsonObject defaults = new JsonObject();
+        JsonObject entry = null;
+        boolean multiProduct = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            if (PRODUCTS.equals(key) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                multiProduct = true;
+                entry = readProducts(in);
+            } else if (HISTORY.equals(key)) {
+                in.skipValue();
+            } else {
+                defaults.add(key, JsonParser.parseReader(in));
+            }
+        }
+        in.endObject();
+        if (!multiProduct) {
+            return defaults;
+        }
+        if (entry == null) {
+            bootstrapper.logError(product == null
+                    ? "The manifest lists several products, but no product is set in the local metadata."
+                    : "Product " + product + " is not listed in the manifest.");
+            return new JsonObject();
+        }
+        return merge(entry, defaults);
+    }
+
+    long getBytesRead() {
+        return counter != null ? counter.getCount() : 0;
+    }
+
+    private JsonObject readProducts(JsonReader in) throws IOException {
+        JsonObject entry = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            if (in.nextName().equals(product) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                entry = readProduct(in);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return entry;
+    }
+
+    private JsonObject readProduct(JsonReader in) throws IOException {
+        JsonObject defaults = new JsonObject();
+        JsonObject requested = null;
+        JsonObject fallback = null;
+        boolean hasChannels = false;
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            if (CHANNELS.equals(key) && in.peek() == JsonToken.BEGIN_OBJECT) {
+                hasChannels = true;
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (name.equals(channel)) {
+                        requested = readEntry(in);
+                    } else if (DEFAULT_CHANNEL.equals(name)) {
+                        fallback = readEntry(in);
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+            } else if (HISTORY.equals(key)) {
+                in.skipValue();
+            } else {
+                defaults.add(key, JsonParser.parseReader(in));
+            }
+        }
+        in.endObject();
+        if (!hasChannels) {
+            return defaults;
+        }
+        if (requested == null) {
+            if (fallback == null) {
+                bootstrapper.logError("Product " + product + " has neither a " + channel + " nor a " + DEFAULT_CHANNEL + " channel.");
+                return null;
+            }
+            bootstrapper.log("Channel " + channel + " is not available for " + product + ", using " + DEFAULT_CHANNEL + ".");
+            requested = fallback;
+        }
+        return merge(requested, defaults);
+    }
+
+    private static JsonObject readEntry(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return null;
+        }
+        JsonObject entry = new JsonObject();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            if (HISTORY.equals(key)) {
+                in.skipValue();
+            } else {
+                entry.add(key, JsonParser.parseReader(in));
+            }
+        }
+        in.endObject();
+        return entry;
+    }
+
+    private static JsonObject merge(JsonObject entry, JsonObject defaults) {
+        for (Map.Entry<String, JsonElement> value : defaults.entrySet()) {
+            if (!entry.has(value.getKey())) {
+                entry.add(value.getKey(), value.getValue());
+            }
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,190 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps the last metadata response next to the local meta file together with its {@code ETag} and
+ * {@code Last-Modified} validators, so unchanged metadata can be revalidated with a conditional request and is still
+ * available when the update server cannot be reached. The validators are stored in {@code <meta>.cache}, the raw
+ * response body in {@code <meta>.manifest}; the body is written while it is streamed to the parser and never held in
+ * memory. Both files are replaced atomically under the lock of the local meta file, so concurrent launches never see
+ * a body with the validators of another response.
+ */
+class MetadataCache {
+
+    private static final Gson GSON = new Gson();
+
+    private final File file;
+    private final File bodyFile;
+    private final File lockFile;
+    private final String url;
+    private boolean valid = false;
+    private String etag = null;
+    private String lastModified = null;
+
+    MetadataCache(File localMetaDataFile, String url) {
+        this.url = url;
+        if (localMetaDataFile == null) {
+            this.file = null;
+            this.bodyFile = null;
+            this.lockFile = null;
+            return;
+        }
+        File parent = localMetaDataFile.getAbsoluteFile().getParentFile();
+        this.file = new File(parent, localMetaDataFile.getName() + ".cache");
+        this.bodyFile = new File(parent, localMetaDataFile.getName() + ".manifest");
+        this.lockFile = getLockFile(localMetaDataFile);
+        load();
+    }
+
+    /**
+     * Lock that serialises writes to the local meta file and this cache between processes.
+     */
+    static File getLockFile(File localMetaDataFile) {
+        return new File(localMetaDataFile.getAbsoluteFile().getParentFile(), localMetaDataFile.getName() + ".lock");
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            JsonObject entry = GSON.fromJson(reader, JsonObject.class);
+            if (entry == null || !entry.has("url") || !entry.get("url").getAsString().equals(url)) {
+                return;
+            }
+            if (entry.has("body") && !bodyFile.isFile()) {
+                AtomicFiles.write(bodyFile, entry.get("body").getAsString());
+            }
+            valid = bodyFile.isFile();
+            etag = entry.has("etag") ? entry.get("etag").getAsString() : null;
+            lastModified = entry.has("lastModified") ? entry.get("lastModified").getAsString() : null;
+        } catch (Exception ignore) {}
+    }
+
+    /**
+     * Wraps a response stream so that everything read from it is written to the cache. The cached body only replaces
+     * the previous one when {@link Recording#commit()} is called after the response was parsed.
+     * @return Recording stream to read the response from
+     */
+    Recording record(InputStream in, String etag, String lastModified) throws IOException {
+        return new Recording(in, etag, lastModified);
+    }
+
+    boolean hasBody() {
+        return valid && bodyFile.isFile();
+    }
+
+    InputStream openBody() throws IOException {
+        return new BufferedInputStream(new FileInputStream(bodyFile));
+    }
+
+    String getEtag() {
+        return etag;
+    }
+
+    String getLastModified() {
+        return lastModified;
+    }
+
+    private void saveValidators(String etag, String lastModified) throws IOException {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("url", url);
+        if (etag != null) {
+            entry.addProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            entry.addProperty("lastModified", lastModified);
+        }
+        AtomicFiles.write(file, GSON.toJson(entry));
+        this.valid = true;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    class Recording extends FilterInputStream {
+
+        private final String etag;
+        private final String lastModified;
+        private final File temporary;
+        private final OutputStream out;
+        private boolean committed = false;
+
+        private Recording(InputStream in, String etag, String lastModified) throws IOException {
+            super(in);
+            this.etag = etag;
+            this.lastModified = lastModified;
+            if (file == null) {
+                this.temporary = null;
+                this.out = null;
+                return;
+            }
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+            }
+            this.temporary = File.createTempFile(bodyFile.getName() + ".", ".tmp", parent);
+            this.out = new BufferedOutputStream(new FileOutputStream(temporary));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value != -1 && out != null) {
+                out.write(value);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0 && out != null) {
+                out.write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return Math.max(0, read(new byte[(int) Math.min(n, 8192)]));
+        }
+
+        /**
+         * Reads the rest of the response and replaces the cached body with it.
+         */
+        void commit() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer) != -1) {
+                // drain the response so the whole body is cached
+            }
+            if (out == null) {
+                return;
+            }
+            out.close();
+            try (LockFile ignored = LockFile.lock(lockFile, false)) {
+                AtomicFiles.move(temporary, bodyFile);
+                committed = true;
+                saveValidators(etag, lastModified);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (out != null && !committed) {
+                    out.close();
+                    if (temporary.exists() && !temporary.delete()) {
+                        temporary.deleteOnExit();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Selects between mirrors of the update server. The metadata can list equivalent base urls as
+ * {@code mirrors: ["https://a.example.com/", "https://b.example.com/apex/"]}; every url that starts with one of them
+ * can be fetched from any other. Requests are hedged: the best mirror is asked first, and when it has not answered
+ * within the hedge delay the next one is asked as well, until one of them succeeds. The latency and failures of every
+ * mirror are kept in the {@code mirrorStats} of the local meta data, so the fastest healthy mirror is preferred on the
+ * next launch.
+ */
+class Mirrors {
+
+    static final long MIN_HEDGE_DELAY = 250;
+    static final long MAX_HEDGE_DELAY = 2000;
+    static final long DEFAULT_HEDGE_DELAY = 1000;
+    static final long FAILURE_BACKOFF = 10 * 60 * 1000;
+
+    private static final String STATS = "mirrorStats";
+
+    private final ApexBootstrapper bootstrapper;
+    private final JsonObject localMetaData;
+    private volatile List<String> prefixes = Collections.emptyList();
+    private volatile boolean changed = false;
+
+    Mirrors(ApexBootstrapper bootstrapper, JsonObject localMetaData) {
+        this.bootstrapper = bootstrapper;
+        this.localMetaData = localMetaData;
+    }
+
+    void setPrefixes(JsonObject metadata) {
+        List<String> list = new ArrayList<>();
+        if (metadata.has("mirrors") && metadata.get("mirrors").isJsonArray()) {
+            for (JsonElement element : metadata.getAsJsonArray("mirrors")) {
+                list.add(element.getAsString());
+            }
+        }
+        prefixes = list;
+    }
+
+    /**
+     * Resolves every mirror of the given url, the best one first.
+     * @return List of urls
+     */
+    List<String> getCandidates(String url, Collection<String> alternatives) {
+        Set<String> urls = new LinkedHashSet<>();
+        urls.add(url);
+        urls.addAll(alternatives);
+        for (String prefix : prefixes) {
+            if (url.startsWith(prefix)) {
+                for (String mirror : prefixes) {
+                    urls.add(mirror + url.substring(prefix.length()));
+                }
+            }
+        }
+        List<String> candidates = new ArrayList<>(urls);
+        long now = System.currentTimeMillis();
+        candidates.sort(Comparator.comparingLong(candidate -> getScore(candidate, now)));
+        return candidates;
+    }
+
+    List<String> getCandidates(String url) {
+        return getCandidates(url, Collections.emptyList());
+    }
+
+    /**
+     * Runs the request against the given urls with hedging. A request fails by returning null or throwing.
+     * @return Result of the first successful request, or null if every mirror failed
+     */
+    <T> Result<T> race(List<String> urls, Request<T> request) {
+        if (urls.size() == 1) {
+            Attempt<T> attempt = new Attempt<>(urls.get(0), request).call();
+            return attempt.value != null ? new Result<>(attempt.url, attempt.value) : null;
+        }
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ApexBootstrapper-Mirror");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Attempt<T>> completion = new ExecutorCompletionService<>(executor);
+        long hedgeDelay = getHedgeDelay(urls.get(0));
+        int submitted = 0;
+        int finished = 0;
+        Result<T> result = null;
+        try {
+            completion.submit(new Attempt<>(urls.get(submitted++), request));
+            while (finished < submitted) {
+                Future<Attempt<T>> done = submitted < urls.size() ? completion.poll(hedgeDelay, TimeUnit.MILLISECONDS) : completion.take();
+                if (done == null) {
+                    bootstrapper.log("No response from " + getOrigin(urls.get(submitted - 1)) + " after " + hedgeDelay + " ms, asking " + getOrigin(urls.get(submitted)) + " as well.");
+                    completion.submit(new Attempt<>(urls.get(submitted++), request));
+                    continue;
+                }
+                finished++;
+                Attempt<T> attempt = done.get();
+                if (attempt.value != null) {
+                    result = new Result<>(attempt.url, attempt.value);
+                    break;
+                }
+                if (submitted < urls.size()) {
+                    completion.submit(new Attempt<>(urls.get(submitted++), request));
+                }
+            }
+        } catch (Exception e) {
+            bootstrapper.logError("Error contacting mirrors: " + e.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+        int pending = submitted - finished;
+        if (pending > 0) {
+            releaseLosers(completion, pending, request);
+        }
+        return result;
+    }
+
+    private <T> void releaseLosers(CompletionService<Attempt<T>> completion, int pending, Request<T> request) {
+        Thread thread = new Thread(() -> {
+            for (int i = 0; i < pending; i++) {
+                try {
+                    Attempt<T> attempt = completion.take().get();
+                    if (attempt.value != null) {
+                        request.release(attempt.value);
+                    }
+                } catch (Exception ignore) {}
+            }
+        }, "ApexBootstrapper-Mirror-Cleanup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Records the outcome of a request to the mirror of the given url.
+     */
+    void record(String url, long latency, boolean success) {
+        String origin = getOrigin(url);
+        synchronized (bootstrapper) {
+            JsonObject stats = localMetaData.has(STATS) && localMetaData.get(STATS).isJsonObject() ? localMetaData.getAsJsonObject(STATS) : new JsonObject();
+            localMetaData.add(STATS, stats);
+            JsonObject mirror = stats.has(origin) ? stats.getAsJsonObject(origin) : new JsonObject();
+            if (success) {
+                long average = mirror.has("latencyMs") ? mirror.get("latencyMs").getAsLong() : latency;
+                mirror.addProperty("latencyMs", (average * 3 + latency) / 4);
+                mirror.addProperty("failures", 0);
+            } else {
+                mirror.addProperty("failures", (mirror.has("failures") ? mirror.get("failures").getAsInt() : 0) + 1);
+                mirror.addProperty("lastFailure", System.currentTimeMillis());
+            }
+            stats.add(origin, mirror);
+        }
+        changed = true;
+    }
+
+    boolean hasChanged() {
+        return changed;
+    }
+
+    private JsonObject getStats(String url) {
+        synchronized (bootstrapper) {
+            if (!localMetaData.has(STATS) || !localMetaData.get(STATS).isJsonObject()) {
+                return null;
+            }
+            JsonObject stats = localMetaData.getAsJsonObject(STATS);
+            String origin = getOrigin(url);
+            return stats.has(origin) ? stats.getAsJsonObject(origin) : null;
+        }
+    }
+
+    private long getScore(String url, long now) {
+        JsonObject stats = getStats(url);
+        if (stats == null) {
+            return Long.MAX_VALUE / 4;
+        }
+        if (stats.has("failures") && stats.get("failures").getAsInt() > 0 && stats.has("lastFailure")
+                && now - stats.get("lastFailure").getAsLong() < FAILURE_BACKOFF) {
+            return Long.MAX_VALUE / 2 + stats.get("failures").getAsInt();
+        }
+        return stats.has("latencyMs") ? stats.get("latencyMs").getAsLong() : Long.MAX_VALUE / 4;
+    }
+
+    private long getHedgeDelay(String url) {
+        JsonObject stats = getStats(url);
+        if (stats == null || !stats.has("latencyMs")) {
+            return DEFAULT_HEDGE_DELAY;
+        }
+        return Math.max(MIN_HEDGE_DELAY, Math.min(MAX_HEDGE_DELAY, stats.get("latencyMs").getAsLong() * 2));
+    }
+
+    static String getOrigin(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getHost() != null) {
+                return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() >= 0 ? ":" + uri.getPort() : "");
+            }
+        } catch (Exception ignore) {}
+        return url;
+    }
+
+    interface Request<T> {
+
+        T open(String url) throws Exception;
+
+        default void release(T value) {}
+    }
+
+    static class Result<T> {
+
+        final String url;
+        final T value;
+
+        private Result(String url, T value) {
+            this.url = url;
+            this.value = value;
+        }
+    }
+
+    private class Attempt<T> implements Callable<Attempt<T>> {
+
+        private final String url;
+        private final Request<T> request;
+        private T value = null;
+
+        private Attempt(String url, Request<T> request) {
+            this.url = url;
+            this.request = request;
+        }
+
+        @Override
+        public Attempt<T> call() {
+            long start = System.nanoTime();
+            try {
+                value = request.open(url);
+            } catch (Exception e) {
+                bootstrapper.logError("Request to " + getOrigin(url) + " failed: " + e.getMessage());
+                value = null;
+            }
+            record(url, (System.nanoTime() - start) / 1_000_000, value != null);
+            return this;
+        }
+    }
+}
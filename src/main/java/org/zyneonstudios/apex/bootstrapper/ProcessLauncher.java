@@ -0,0 +1,100 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Launches the executable in a new JVM, either with {@code java -jar} or with the configured main class. Executables
+ * with libraries are started with a classpath of the jar and its libraries.
+ */
+class ProcessLauncher implements LaunchStrategy {
+
+    private final JvmOptions jvmOptions;
+    private final CdsArchive cdsArchive;
+    private final String executableHash;
+    private final List<File> libraries;
+
+    ProcessLauncher(JvmOptions jvmOptions, CdsArchive cdsArchive, String executableHash, List<File> libraries) {
+        this.jvmOptions = jvmOptions;
+        this.cdsArchive = cdsArchive;
+        this.executableHash = executableHash;
+        this.libraries = libraries;
+    }
+
+    @Override
+    public Launch start(File executable, String[] args) throws Exception {
+        File java = jvmOptions.getJavaExecutable();
+        ProcessBuilder processBuilder = new ProcessBuilder();
+        processBuilder.command().add(java.getPath());
+        processBuilder.command().addAll(jvmOptions.getArguments());
+        if (cdsArchive != null) {
+            processBuilder.command().addAll(cdsArchive.prepare(java, executableHash, libraries));
+        }
+        if (jvmOptions.getMainClass() != null || !libraries.isEmpty()) {
+            processBuilder.command().add("-cp");
+            processBuilder.command().add(getClasspath(executable));
+            processBuilder.command().add(jvmOptions.getMainClass() != null ? jvmOptions.getMainClass() : LaunchStrategy.getMainClass(executable));
+        } else {
+            processBuilder.command().add("-jar");
+            processBuilder.command().add(executable.getPath());
+        }
+        if (args != null) {
+            for (String arg : args) {
+                processBuilder.command().add(arg);
+            }
+        }
+        processBuilder.inheritIO();
+        Process process = processBuilder.start();
+        return () -> {
+            int exitCode = process.waitFor();
+            if (cdsArchive != null) {
+                cdsArchive.complete();
+            }
+            return exitCode;
+        };
+    }
+
+    /**
+     * Starts a JVM with the same runtime, options and classpath as {@link #start}, which waits to run the executable
+     * until a restart is requested. The standby only maps an existing CDS archive and never dumps one.
+     * @return WarmStandby
+     */
+    WarmStandby startStandby(ApexBootstrapper bootstrapper, File executable, File cacheDir) throws IOException {
+        File java = jvmOptions.getJavaExecutable();
+        List<String> command = new ArrayList<>();
+        command.add(java.getPath());
+        command.addAll(jvmOptions.getArguments());
+        if (cdsArchive != null) {
+            command.addAll(cdsArchive.reuse(java, executableHash, libraries));
+        }
+        command.add("-cp");
+        command.add(getClasspath(executable) + File.pathSeparator + WarmStandby.extractMainClass(cacheDir).getPath());
+        String mainClass = jvmOptions.getMainClass() != null ? jvmOptions.getMainClass() : LaunchStrategy.getMainClass(executable);
+        return new WarmStandby(bootstrapper, command, mainClass, executable);
+    }
+
+    private String getClasspath(File executable) {
+        StringBuilder classpath = new StringBuilder(executable.getPath());
+        for (File library : libraries) {
+            classpath.append(File.pathSeparator).append(library.getPath());
+        }
+        return classpath.toString();
+    }
+
+    static File findOnPath(String command) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        boolean windows = System.getProperty("os.name").toLowerCase().contains("win");
+        for (String directory : path.split(File.pathSeparator)) {
+            File file = new File(directory, windows ? command + ".exe" : command);
+            if (file.isFile() && file.canExecute()) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
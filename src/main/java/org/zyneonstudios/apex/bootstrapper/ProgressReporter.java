@@ -0,0 +1,26 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+/**
+ * Reports the bootstrapper's progress to the user. The default reporter is headless and does nothing, so runs without a
+ * frame never load any UI classes. Reporters receive the download progress like any other {@link DownloadListener}.
+ */
+public interface ProgressReporter extends DownloadListener {
+
+    ProgressReporter NONE = new HeadlessProgressReporter();
+
+    /**
+     * Shows the progress window, if this reporter has one.
+     */
+    void show();
+
+    /**
+     * Hides and releases the progress window, if this reporter has one.
+     */
+    void hide();
+
+    /**
+     * Sets the status message that describes what the bootstrapper is currently doing.
+     * @param status the status message
+     */
+    void setStatus(String status);
+}
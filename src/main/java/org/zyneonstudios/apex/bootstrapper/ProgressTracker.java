@@ -0,0 +1,59 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes of one download and reports them to a listener at most once per interval, so the copy loops only pay
+ * for an atomic add on most iterations.
+ */
+class ProgressTracker {
+
+    static final long INTERVAL = 100;
+
+    private final DownloadListener listener;
+    private final String url;
+    private final long totalBytes;
+    private final AtomicLong transferred;
+    private volatile long lastEmit = 0;
+    private long lastBytes;
+    private long lastNanos = System.nanoTime();
+    private double rate = 0;
+
+    ProgressTracker(DownloadListener listener, String url, long totalBytes, long initialBytes) {
+        this.listener = listener;
+        this.url = url;
+        this.totalBytes = totalBytes;
+        this.transferred = new AtomicLong(initialBytes);
+        this.lastBytes = initialBytes;
+    }
+
+    void add(long bytes) {
+        transferred.addAndGet(bytes);
+        long now = System.currentTimeMillis();
+        if (now - lastEmit >= INTERVAL) {
+            emit(now, false);
+        }
+    }
+
+    void finish() {
+        emit(System.currentTimeMillis(), true);
+    }
+
+    private synchronized void emit(long now, boolean finished) {
+        if (!finished && now - lastEmit < INTERVAL) {
+            return;
+        }
+        lastEmit = now;
+        long bytes = transferred.get();
+        long nanos = System.nanoTime();
+        if (nanos > lastNanos) {
+            double current = (bytes - lastBytes) * 1_000_000_000.0 / (nanos - lastNanos);
+            rate = rate == 0 ? current : rate * 0.7 + current * 0.3;
+        }
+        lastBytes = bytes;
+        lastNanos = nanos;
+        try {
+            listener.onProgress(new DownloadProgress(url, bytes, totalBytes, (long) rate, finished));
+        } catch (RuntimeException ignore) {}
+    }
+}
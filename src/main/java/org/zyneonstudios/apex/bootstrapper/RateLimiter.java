@@ -0,0 +1,51 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.InterruptedIOException;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket shared by every download of a launch, so parallel segments and library workers stay below one combined
+ * limit. The rate is read on every call, which lets the limit change while a download runs. Bursts are limited to a
+ * tenth of a second of the rate.
+ */
+class RateLimiter {
+
+    private static final long BURST_NANOS = 100_000_000L;
+
+    private final LongSupplier rate;
+    private double tokens = 0;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param rate Supplies the limit in bytes per second, zero or less for no limit
+     */
+    RateLimiter(LongSupplier rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Takes the given number of bytes from the bucket and waits until the rate allows them.
+     */
+    void acquire(int bytes) throws InterruptedIOException {
+        long bytesPerSecond = rate.getAsLong();
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            tokens = Math.min(tokens + (now - lastRefill) * bytesPerSecond / 1e9, bytesPerSecond * (BURST_NANOS / 1e9));
+            lastRefill = now;
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * 1e9 / bytesPerSecond) : 0;
+        }
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the download rate limit.");
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+/**
+ * Decides whether an application that exited with the restart code is started again. Restarts that follow a short run
+ * count as a restart loop: the first one is immediate, every further one waits twice as long as the previous one, and
+ * after {@code maxRestarts} of them the application is not restarted anymore. A run longer than a minute resets the
+ * count. Both limits are read from the metadata and can be overridden by the local meta data.
+ */
+class RestartPolicy {
+
+    static final int RESTART_EXIT_CODE = -2;
+    static final int DEFAULT_MAX_RESTARTS = 5;
+    static final long DEFAULT_BACKOFF = 500;
+
+    private static final long MAX_BACKOFF = 30_000;
+    private static final long STABLE_RUN = 60_000;
+
+    private final long maxRestarts;
+    private final long backoff;
+    private int rapidRestarts = 0;
+
+    /**
+     * @param maxRestarts Restarts allowed in a row, or -1 for the default
+     * @param backoff Milliseconds to wait before the second restart in a row, or -1 for the default
+     */
+    RestartPolicy(long maxRestarts, long backoff) {
+        this.maxRestarts = maxRestarts >= 0 ? maxRestarts : DEFAULT_MAX_RESTARTS;
+        this.backoff = backoff >= 0 ? backoff : DEFAULT_BACKOFF;
+    }
+
+    /**
+     * Processes only report the low byte of their exit code on POSIX systems, so the restart code of a forked
+     * application arrives as {@code 254}. An application launched in process reports the exact code, so only
+     * {@value #RESTART_EXIT_CODE} asks it for a restart.
+     * @param forked Whether the application ran in its own process
+     */
+    static boolean isRestart(int exitCode, boolean forked) {
+        return exitCode == RESTART_EXIT_CODE || (forked && exitCode == (RESTART_EXIT_CODE & 0xFF));
+    }
+
+    /**
+     * Counts a restart of an application that ran for the given time.
+     * @return Milliseconds to wait before the restart, or -1 if the application restarted too often
+     */
+    long nextDelay(long runMillis) {
+        if (runMillis >= STABLE_RUN) {
+            rapidRestarts = 0;
+        }
+        if (rapidRestarts >= maxRestarts) {
+            return -1;
+        }
+        long delay = rapidRestarts == 0 ? 0 : Math.min(MAX_BACKOFF, backoff << Math.min(rapidRestarts - 1, 16));
+        rapidRestarts++;
+        return delay;
+    }
+}
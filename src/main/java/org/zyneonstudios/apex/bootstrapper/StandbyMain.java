@@ -0,0 +1,85 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Main class of a warm standby JVM. It connects back to the bootstrapper, loads every class of the executable and then
+ * waits for the arguments to run the application's main method with, which it confirms before calling main. If the
+ * bootstrapper closes the connection instead, the standby exits without running the application.
+ * <p>
+ * This class runs on the application's classpath, so it only uses the Java runtime and no other class of the
+ * bootstrapper.
+ * <p>
+ * Arguments: {@code <port> <mainClass> <executable>}
+ */
+final class StandbyMain {
+
+    static final String TOKEN_VARIABLE = "APEX_STANDBY_TOKEN";
+
+    private StandbyMain() {}
+
+    public static void main(String[] args) throws Throwable {
+        String token = System.getenv(TOKEN_VARIABLE);
+        if (args.length < 3 || token == null) {
+            System.err.println("This class is started by the bootstrapper and cannot be run directly.");
+            System.exit(1);
+        }
+        String[] applicationArgs;
+        Method main;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0]))) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(token);
+            out.flush();
+
+            ClassLoader classLoader = ClassLoader.getSystemClassLoader();
+            preload(new File(args[2]), classLoader);
+            main = Class.forName(args[1], false, classLoader).getMethod("main", String[].class);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            applicationArgs = new String[in.readInt()];
+            for (int i = 0; i < applicationArgs.length; i++) {
+                applicationArgs[i] = in.readUTF();
+            }
+            out.write(1);
+            out.flush();
+        } catch (IOException e) {
+            // the bootstrapper closed the connection, it no longer needs this standby
+            return;
+        }
+        try {
+            main.invoke(null, (Object) applicationArgs);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Loads every class of the jar without initializing it, so the application starts without reading and verifying
+     * its classes. Classes that fail to load are left to fail when the application uses them.
+     */
+    private static void preload(File executable, ClassLoader classLoader) {
+        try (JarFile jarFile = new JarFile(executable)) {
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (!name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith("module-info.class")) {
+                    continue;
+                }
+                try {
+                    Class.forName(name.substring(0, name.length() - 6).replace('/', '.'), false, classLoader);
+                } catch (Throwable ignore) {
+                    // missing optional dependency
+                }
+            }
+        } catch (IOException ignore) {
+            // the application reports a broken jar itself once it runs
+        }
+    }
+}
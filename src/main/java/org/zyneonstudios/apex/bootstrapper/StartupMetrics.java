@@ -0,0 +1,190 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the duration of every bootstrap phase. Each phase is also emitted as a JDK Flight Recorder event when the
+ * runtime supports JFR, and the collected timings can be written as a JSON report. Phases that transfer compressed
+ * data record the transferred and the decompressed bytes, so the report shows the bandwidth saved by compression.
+ */
+public class StartupMetrics {
+
+    public static final String LOOK_AND_FEEL = "lookAndFeel";
+    public static final String LOCAL_META_READ = "localMetaRead";
+    public static final String METADATA_FETCH = "metadataFetch";
+    public static final String DOWNLOAD = "download";
+    public static final String PATCH = "patch";
+    public static final String VERIFY = "verify";
+    public static final String EXTRACT = "extract";
+    public static final String PROCESS_START = "processStart";
+    public static final String RESTART = "restart";
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final EventRecorder RECORDER = createRecorder();
+
+    private final long jvmStartTime;
+    private final long createdAt = System.nanoTime();
+    private final List<Phase> phases = new ArrayList<>();
+    private long childProcessStart = -1;
+
+    public StartupMetrics() {
+        long startTime;
+        try {
+            startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+        } catch (Throwable t) {
+            startTime = System.currentTimeMillis();
+        }
+        this.jvmStartTime = startTime;
+    }
+
+    private static EventRecorder createRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (EventRecorder) Class.forName("org.zyneonstudios.apex.bootstrapper.JfrPhaseEvent$Recorder").getDeclaredConstructor().newInstance();
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    public Phase begin(String name) {
+        return new Phase(name);
+    }
+
+    void markChildProcessStart() {
+        childProcessStart = System.currentTimeMillis();
+    }
+
+    public synchronized List<Phase> getPhases() {
+        return new ArrayList<>(phases);
+    }
+
+    private synchronized void record(Phase phase) {
+        phases.add(phase);
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject report = new JsonObject();
+        report.addProperty("timestamp", System.currentTimeMillis());
+        report.addProperty("jvmStartToBootstrapperMs", Math.max(0, System.currentTimeMillis() - jvmStartTime - nanosToMillis(System.nanoTime() - createdAt)));
+        if (childProcessStart >= 0) {
+            report.addProperty("timeToChildProcessStartMs", childProcessStart - jvmStartTime);
+        }
+        long downloadBytes = 0;
+        long downloadRawBytes = 0;
+        long downloadNanos = 0;
+        JsonArray array = new JsonArray();
+        for (Phase phase : phases) {
+            JsonObject object = new JsonObject();
+            object.addProperty("name", phase.name);
+            object.addProperty("startMs", nanosToMillis(phase.start - createdAt));
+            object.addProperty("durationMs", nanosToMillis(phase.duration));
+            if (phase.bytes >= 0) {
+                object.addProperty("bytes", phase.bytes);
+                object.addProperty("bytesPerSecond", phase.getThroughput());
+            }
+            if (phase.rawBytes >= 0) {
+                object.addProperty("rawBytes", phase.rawBytes);
+            }
+            array.add(object);
+            if ((DOWNLOAD.equals(phase.name) || PATCH.equals(phase.name)) && phase.bytes > 0) {
+                downloadBytes += phase.bytes;
+                downloadRawBytes += phase.getRawBytes();
+                downloadNanos += phase.duration;
+            }
+        }
+        report.add("phases", array);
+        report.addProperty("downloadBytes", downloadBytes);
+        report.addProperty("downloadRawBytes", downloadRawBytes);
+        report.addProperty("downloadBytesPerSecond", downloadNanos > 0 ? downloadBytes * 1_000_000_000L / downloadNanos : 0);
+        return report;
+    }
+
+    public void writeReport(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create directory: " + parent.getAbsolutePath());
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(GSON.toJson(toJson()));
+        }
+    }
+
+    private static double nanosToMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    interface EventRecorder {
+
+        Object start(String phase);
+
+        void commit(Object event, long bytes, long rawBytes, long throughput);
+    }
+
+    public class Phase {
+
+        private final String name;
+        private final long start = System.nanoTime();
+        private final Object event;
+        private long duration = -1;
+        private long bytes = -1;
+        private long rawBytes = -1;
+
+        private Phase(String name) {
+            this.name = name;
+            this.event = RECORDER != null ? RECORDER.start(name) : null;
+        }
+
+        public void end() {
+            end(-1);
+        }
+
+        public void end(long bytes) {
+            end(bytes, -1);
+        }
+
+        /**
+         * Ends the phase with the bytes transferred and the bytes they were decompressed to.
+         */
+        public void end(long bytes, long rawBytes) {
+            if (duration >= 0) {
+                return;
+            }
+            this.duration = System.nanoTime() - start;
+            this.bytes = bytes;
+            this.rawBytes = rawBytes;
+            if (event != null) {
+                RECORDER.commit(event, bytes, getRawBytes(), getThroughput());
+            }
+            record(this);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationNanos() {
+            return duration;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getRawBytes() {
+            return rawBytes >= 0 ? rawBytes : Math.max(0, bytes);
+        }
+
+        public long getThroughput() {
+            return bytes > 0 && duration > 0 ? bytes * 1_000_000_000L / duration : 0;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.formdev.flatlaf.FlatDarkLaf;
+import com.formdev.flatlaf.themes.FlatMacDarkLaf;
+
+import javax.swing.*;
+import java.awt.*;
+
+class SwingProgressReporter implements ProgressReporter {
+
+    private final JLabel label = new JLabel("Checking for updates...");
+    private final JProgressBar progressBar = new JProgressBar(0, 1000);
+    private JFrame bootstrapperFrame = null;
+
+    SwingProgressReporter() {
+        setupLookAndFeel();
+    }
+
+    static void setupLookAndFeel() {
+        try {
+            FlatDarkLaf.setup();
+            if(System.getProperty("os.name").toLowerCase().contains("mac")) {
+                UIManager.setLookAndFeel(new FlatMacDarkLaf());
+            } else {
+                UIManager.setLookAndFeel(new FlatDarkLaf());
+            }
+        } catch (Exception ignore) {}
+    }
+
+    @Override
+    public void show() {
+        if (bootstrapperFrame == null) {
+            bootstrapperFrame = new JFrame("Apex Bootstrapper");
+            bootstrapperFrame.getRootPane().putClientProperty("JRootPane.titleBarBackground", Color.black);
+            bootstrapperFrame.getRootPane().putClientProperty("JRootPane.titleBarForeground", Color.white);
+            bootstrapperFrame.getRootPane().setBackground(Color.black);
+            bootstrapperFrame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+            progressBar.setIndeterminate(true);
+            JPanel panel = new JPanel();
+            panel.setBackground(null);
+            panel.setLayout(new BorderLayout());
+            bootstrapperFrame.setLayout(new BorderLayout());
+            label.setBorder(BorderFactory.createEmptyBorder(0, 0, 4, 0));
+            label.setForeground(Color.white);
+            panel.add(label, BorderLayout.CENTER);
+            panel.add(progressBar, BorderLayout.SOUTH);
+            bootstrapperFrame.add(panel, BorderLayout.CENTER);
+            panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
+            bootstrapperFrame.setSize(350, 100);
+            bootstrapperFrame.setResizable(false);
+            bootstrapperFrame.setLocationRelativeTo(null);
+            bootstrapperFrame.setVisible(true);
+        } else {
+            bootstrapperFrame.setVisible(true);
+        }
+    }
+
+    @Override
+    public void hide() {
+        if (bootstrapperFrame != null) {
+            bootstrapperFrame.setVisible(false);
+            bootstrapperFrame.dispose();
+            bootstrapperFrame = null;
+        }
+    }
+
+    @Override
+    public void setStatus(String status) {
+        SwingUtilities.invokeLater(() -> {
+            label.setText(status);
+            label.setForeground(Color.white);
+        });
+    }
+
+    @Override
+    public void onProgress(DownloadProgress progress) {
+        SwingUtilities.invokeLater(() -> {
+            double fraction = progress.getFraction();
+            if (fraction < 0 || progress.isFinished()) {
+                progressBar.setIndeterminate(true);
+                progressBar.setStringPainted(false);
+                return;
+            }
+            progressBar.setIndeterminate(false);
+            progressBar.setValue((int) (fraction * 1000));
+            progressBar.setStringPainted(true);
+            StringBuilder text = new StringBuilder();
+            text.append((int) (fraction * 100)).append("% - ").append(formatBytes(progress.getBytesPerSecond())).append("/s");
+            long eta = progress.getEtaSeconds();
+            if (eta >= 0) {
+                text.append(" - ").append(eta >= 60 ? eta / 60 + " min " + eta % 60 + " s" : eta + " s").append(" left");
+            }
+            progressBar.setString(text.toString());
+        });
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    static void showErrorDialog(String message) {
+        if(Desktop.isDesktopSupported()) {
+            setupLookAndFeel();
+            JDialog errorDialog = new JDialog();
+            errorDialog.setTitle("Apex Bootstrapper - Error");
+            errorDialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
+            JLabel messageLabel = new JLabel("<html><body style='width: 300px; padding: 10px;'>" + message + "</body></html>");
+            messageLabel.setHorizontalAlignment(SwingConstants.CENTER);
+            errorDialog.getContentPane().add(messageLabel, BorderLayout.CENTER);
+            errorDialog.setSize(350, 150);
+            errorDialog.setResizable(false);
+            errorDialog.setLocationRelativeTo(null);
+            errorDialog.setModal(true);
+            errorDialog.setVisible(true);
+        }
+    }
+}
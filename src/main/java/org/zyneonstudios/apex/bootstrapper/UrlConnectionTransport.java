@@ -0,0 +1,83 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Transport based on {@link HttpURLConnection}. Connections are never disconnected; closing a response closes its
+ * stream, which hands the socket back to the JDK's keep-alive cache for the next request to the same host.
+ */
+class UrlConnectionTransport extends HttpTransport {
+
+    @Override
+    Response send(String method, String url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+        HttpURLConnection connection;
+        try {
+            connection = (HttpURLConnection) new URI(url).toURL().openConnection();
+        } catch (Exception e) {
+            throw new IOException("Invalid url: " + url, e);
+        }
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        connection.setRequestProperty("User-Agent", USER_AGENT);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        try {
+            connection.getResponseCode();
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+        return new UrlConnectionResponse(connection);
+    }
+
+    private static class UrlConnectionResponse extends Response {
+
+        private final HttpURLConnection connection;
+        private InputStream body = null;
+
+        private UrlConnectionResponse(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        int getStatus() {
+            try {
+                return connection.getResponseCode();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        long getContentLength() {
+            return connection.getContentLengthLong();
+        }
+
+        @Override
+        InputStream getBody() throws IOException {
+            if (body == null) {
+                body = getStatus() >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            }
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            InputStream in = getBody();
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Remembers the versions that ran successfully, so they stay in the artifact store and can be launched without network
+ * access when an update fails or the new version does not start. The list is kept newest first in the
+ * {@code goodVersions} of the local meta data. At most {@code keepVersions} good versions are retained, and older ones
+ * are evicted while the retained versions take more than {@code maxCacheSize} bytes. Both limits are read from the
+ * metadata and can be overridden by the local meta data.
+ */
+class VersionHistory {
+
+    static final int DEFAULT_KEEP_VERSIONS = 3;
+    static final long DEFAULT_MAX_CACHE_SIZE = 1024L * 1024 * 1024;
+
+    private static final String GOOD_VERSIONS = "goodVersions";
+
+    private final ApexBootstrapper bootstrapper;
+    private final JsonObject localMetaData;
+    private final ArtifactStore store;
+    private int keepVersions = DEFAULT_KEEP_VERSIONS;
+    private long maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+
+    VersionHistory(ApexBootstrapper bootstrapper, JsonObject localMetaData, ArtifactStore store) {
+        this.bootstrapper = bootstrapper;
+        this.localMetaData = localMetaData;
+        this.store = store;
+    }
+
+    void setLimits(JsonObject metadata) {
+        keepVersions = DEFAULT_KEEP_VERSIONS;
+        maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+        for (JsonObject source : new JsonObject[]{metadata, localMetaData}) {
+            if (source.has("keepVersions")) {
+                keepVersions = Math.max(1, source.get("keepVersions").getAsInt());
+            }
+            if (source.has("maxCacheSize")) {
+                maxCacheSize = source.get("maxCacheSize").getAsLong();
+            }
+        }
+    }
+
+    /**
+     * Records that the given version exited cleanly and moves it to the front of the list.
+     */
+    void markGood(String version, String hash, List<String> libraries) {
+        if (hash == null) {
+            return;
+        }
+        synchronized (bootstrapper) {
+            List<Entry> entries = getEntries();
+            entries.removeIf(entry -> entry.hash.equals(hash));
+            entries.add(0, new Entry(version, hash, libraries, System.currentTimeMillis()));
+            setEntries(entries);
+        }
+    }
+
+    /**
+     * Resolves the newest good version whose files are all in the artifact store.
+     * @return Entry, or null if there is no version to fall back to
+     */
+    Entry getFallback() {
+        for (Entry entry : getEntries()) {
+            if (store.contains(entry.hash, -1) && containsAll(entry.libraries)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops good versions beyond the configured count, then the oldest ones while the retained versions and the
+     * pinned files exceed the size limit. Pinned files, such as those of the installed version, are never dropped.
+     * @return Hashes of artifacts that no retained version references anymore
+     */
+    Set<String> evict(Set<String> pinned) {
+        Set<String> released = new HashSet<>();
+        synchronized (bootstrapper) {
+            List<Entry> entries = getEntries();
+            while (entries.size() > keepVersions) {
+                released.addAll(entries.remove(entries.size() - 1).getHashes());
+            }
+            for (int i = entries.size() - 1; i >= 0 && getSize(entries, pinned) > maxCacheSize; i--) {
+                if (!pinned.contains(entries.get(i).hash)) {
+                    Entry entry = entries.remove(i);
+                    bootstrapper.log("Evicting version " + entry.version + " from the cache to stay below " + maxCacheSize + " bytes.");
+                    released.addAll(entry.getHashes());
+                }
+            }
+            setEntries(entries);
+            for (Entry entry : entries) {
+                released.removeAll(entry.getHashes());
+            }
+        }
+        released.removeAll(pinned);
+        return released;
+    }
+
+    /**
+     * @return Hashes of every artifact a retained good version references
+     */
+    Set<String> getHashes() {
+        Set<String> hashes = new HashSet<>();
+        for (Entry entry : getEntries()) {
+            hashes.addAll(entry.getHashes());
+        }
+        return hashes;
+    }
+
+    private long getSize(List<Entry> entries, Set<String> pinned) {
+        Set<String> hashes = new HashSet<>(pinned);
+        for (Entry entry : entries) {
+            hashes.addAll(entry.getHashes());
+        }
+        long size = 0;
+        for (String hash : hashes) {
+            if (ArtifactStore.isValidHash(hash)) {
+                File file = store.getFile(hash);
+                size += file.isFile() ? file.length() : 0;
+            }
+        }
+        return size;
+    }
+
+    private boolean containsAll(List<String> hashes) {
+        for (String hash : hashes) {
+            if (!store.contains(hash, -1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>();
+        synchronized (bootstrapper) {
+            if (!localMetaData.has(GOOD_VERSIONS) || !localMetaData.get(GOOD_VERSIONS).isJsonArray()) {
+                return entries;
+            }
+            for (JsonElement element : localMetaData.getAsJsonArray(GOOD_VERSIONS)) {
+                JsonObject entry = element.getAsJsonObject();
+                if (!entry.has("sha256") || !ArtifactStore.isValidHash(entry.get("sha256").getAsString())) {
+                    continue;
+                }
+                List<String> libraries = new ArrayList<>();
+                if (entry.has("libraries") && entry.get("libraries").isJsonArray()) {
+                    for (JsonElement library : entry.getAsJsonArray("libraries")) {
+                        libraries.add(library.getAsString());
+                    }
+                }
+                entries.add(new Entry(entry.has("version") ? entry.get("version").getAsString() : "0",
+                        entry.get("sha256").getAsString().toLowerCase(), libraries,
+                        entry.has("lastGood") ? entry.get("lastGood").getAsLong() : 0));
+            }
+        }
+        return entries;
+    }
+
+    private void setEntries(List<Entry> entries) {
+        JsonArray array = new JsonArray();
+        for (Entry entry : entries) {
+            JsonObject object = new JsonObject();
+            object.addProperty("version", entry.version);
+            object.addProperty("sha256", entry.hash);
+            JsonArray libraries = new JsonArray();
+            for (String library : entry.libraries) {
+                libraries.add(library);
+            }
+            object.add("libraries", libraries);
+            object.addProperty("lastGood", entry.lastGood);
+            array.add(object);
+        }
+        localMetaData.add(GOOD_VERSIONS, array);
+    }
+
+    static class Entry {
+
+        final String version;
+        final String hash;
+        final List<String> libraries;
+        final long lastGood;
+
+        private Entry(String version, String hash, List<String> libraries, long lastGood) {
+            this.version = version;
+            this.hash = hash;
+            this.libraries = new ArrayList<>(libraries);
+            this.lastGood = lastGood;
+        }
+
+        private Set<String> getHashes() {
+            Set<String> hashes = new HashSet<>(libraries);
+            hashes.add(hash);
+            return hashes;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+
+/**
+ * A JVM that is started while the application runs and waits on a loopback connection to take over a restart. It has
+ * already booted and loaded the executable's classes (see {@link StandbyMain}), so a restart only has to send the
+ * arguments. The standby inherits the standard streams of the bootstrapper like a regular launch, and it exits on its
+ * own once the bootstrapper closes the connection or dies.
+ */
+class WarmStandby implements Closeable {
+
+    private static final int ACCEPT_TIMEOUT = 10000;
+    private static final long START_DELAY = 5000;
+    private static final String[] JAR_LAUNCH_ATTRIBUTES = {"Launcher-Agent-Class", "Add-Opens", "Add-Exports", "Enable-Native-Access"};
+
+    private final ApexBootstrapper bootstrapper;
+    private final ServerSocket serverSocket;
+    private final String token;
+    private final Process process;
+    private boolean started = false;
+
+    /**
+     * Starts the standby JVM with the given command, which ends with the classpath option and must not contain a main
+     * class yet.
+     */
+    WarmStandby(ApexBootstrapper bootstrapper, List<String> command, String mainClass, File executable) throws IOException {
+        this.bootstrapper = bootstrapper;
+        this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        this.token = Checksums.toHex(secret);
+        try {
+            List<String> standbyCommand = new ArrayList<>(command);
+            standbyCommand.add(StandbyMain.class.getName());
+            standbyCommand.add(Integer.toString(serverSocket.getLocalPort()));
+            standbyCommand.add(mainClass);
+            standbyCommand.add(executable.getPath());
+            ProcessBuilder processBuilder = new ProcessBuilder(standbyCommand);
+            processBuilder.environment().put(StandbyMain.TOKEN_VARIABLE, token);
+            processBuilder.inheritIO();
+            this.process = processBuilder.start();
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a standby on a daemon thread once the application had some time to start, so the standby does not slow
+     * down its startup. A standby that is started after the future was cancelled is closed right away.
+     * @return CompletableFuture of the standby, completed with null if it could not be started
+     */
+    static CompletableFuture<WarmStandby> startLater(Supplier<WarmStandby> factory) {
+        CompletableFuture<WarmStandby> future = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(START_DELAY);
+            } catch (InterruptedException e) {
+                future.complete(null);
+                return;
+            }
+            if (future.isDone()) {
+                return;
+            }
+            WarmStandby standby = factory.get();
+            if (!future.complete(standby) && standby != null) {
+                standby.close();
+            }
+        }, "ApexBootstrapper-Standby");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * Takes the standby out of the future. A standby that is still starting is abandoned.
+     * @return WarmStandby, or null if none is ready
+     */
+    static WarmStandby take(CompletableFuture<WarmStandby> future) {
+        return future.cancel(false) ? null : future.getNow(null);
+    }
+
+    /**
+     * Executables that set launcher attributes in their manifest depend on being started with {@code java -jar}, which
+     * the standby cannot do.
+     */
+    static boolean supports(File executable) {
+        try (JarFile jarFile = new JarFile(executable)) {
+            java.util.jar.Manifest manifest = jarFile.getManifest();
+            if (manifest != null) {
+                for (String attribute : JAR_LAUNCH_ATTRIBUTES) {
+                    if (manifest.getMainAttributes().containsKey(new Attributes.Name(attribute))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies {@link StandbyMain} to {@code cache/standby}, so only that class and not the whole bootstrapper ends up on
+     * the application's classpath.
+     * @return File classpath entry of the standby class
+     */
+    static File extractMainClass(File cacheDir) throws IOException {
+        File directory = new File(cacheDir, "standby");
+        File file = new File(directory, StandbyMain.class.getName().replace('.', File.separatorChar) + ".class");
+        byte[] bytes;
+        try (InputStream in = StandbyMain.class.getResourceAsStream(StandbyMain.class.getSimpleName() + ".class")) {
+            if (in == null) {
+                throw new IOException("The standby main class is not available.");
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            bytes = out.toByteArray();
+        }
+        if (!file.isFile() || !Arrays.equals(bytes, Files.readAllBytes(file.toPath()))) {
+            AtomicFiles.write(file, bytes);
+        }
+        return directory;
+    }
+
+    /**
+     * Hands the restart to the standby and waits until it invokes the application's main method.
+     * @return Launch handle of the restarted application, or null if the standby is not available
+     */
+    LaunchStrategy.Launch start(String[] args) {
+        if (!process.isAlive()) {
+            bootstrapper.logError("The warm standby JVM exited with code " + process.exitValue() + ".");
+            close();
+            return null;
+        }
+        try {
+            serverSocket.setSoTimeout(ACCEPT_TIMEOUT);
+            long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT;
+            while (true) {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.setSoTimeout(ACCEPT_TIMEOUT);
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    if (token.equals(in.readUTF())) {
+                        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                        String[] arguments = args != null ? args : new String[0];
+                        out.writeInt(arguments.length);
+                        for (String argument : arguments) {
+                            out.writeUTF(argument);
+                        }
+                        out.flush();
+                        socket.setSoTimeout(0);
+                        if (in.read() == -1) {
+                            bootstrapper.logError("The warm standby JVM closed the connection before starting the application.");
+                            close();
+                            return null;
+                        }
+                        started = true;
+                        close();
+                        return process::waitFor;
+                    }
+                } catch (EOFException ignore) {
+                    // connection of another process
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new SocketTimeoutException("No connection from the standby JVM.");
+                }
+            }
+        } catch (IOException e) {
+            bootstrapper.logError("The warm standby JVM did not respond: " + e.getMessage());
+            close();
+            return null;
+        }
+    }
+
+    /**
+     * Stops the standby unless it runs the application.
+     */
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignore) {
+            // nothing to release
+        }
+        if (!started) {
+            process.destroy();
+        }
+    }
+}
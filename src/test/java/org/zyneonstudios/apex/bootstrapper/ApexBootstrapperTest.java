@@ -0,0 +1,157 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ApexBootstrapperTest {
+
+    @TempDir
+    File directory;
+
+    private TestServer server;
+    private File path;
+    private File metaFile;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TestServer();
+        path = new File(directory, "path");
+        metaFile = new File(path, "meta.json");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void backgroundUpdateKeepsTheLaunchConfiguration() throws Exception {
+        byte[] first = TestServer.randomBytes(64 * 1024);
+        byte[] second = TestServer.randomBytes(96 * 1024);
+        serveVersion("1", "app", first);
+        ApexBootstrapper installer = server.createBootstrapper(path);
+        assertTrue(installer.update());
+
+        serveVersion("2", "renamed", second);
+        ApexBootstrapper bootstrapper = createLaunchFirst();
+        assertFalse(bootstrapper.update());
+        JsonObject meta = awaitStaged();
+
+        assertEquals("2", meta.get("stagedVersion").getAsString());
+        assertEquals(TestServer.sha256(second), meta.get("stagedHash").getAsString());
+        assertEquals("1", meta.get("installedVersion").getAsString());
+        assertEquals("1", bootstrapper.getLatestVersion());
+        assertEquals("app", bootstrapper.getName());
+        assertTrue(bootstrapper.isLatest());
+    }
+
+    @Test
+    void nextLaunchSwitchesToTheStagedVersion() throws Exception {
+        byte[] first = TestServer.randomBytes(64 * 1024);
+        byte[] second = TestServer.randomBytes(96 * 1024);
+        serveVersion("1", "app", first);
+        assertTrue(server.createBootstrapper(path).update());
+        serveVersion("2", "app", second);
+        createLaunchFirst().update();
+        awaitStaged();
+
+        ApexBootstrapper bootstrapper = createLaunchFirst();
+
+        assertEquals("2", bootstrapper.getCurrentVersion());
+        assertArrayEquals(second, Files.readAllBytes(new File(bootstrapper.getExecutablePath()).toPath()));
+        JsonObject meta = readMeta();
+        assertEquals("2", meta.get("installedVersion").getAsString());
+        assertEquals(TestServer.sha256(second), meta.get("installedHash").getAsString());
+        assertFalse(meta.has("stagedVersion"));
+    }
+
+    @Test
+    void saveKeepsChangesOfOtherProcesses() throws Exception {
+        serveVersion("1", "app", TestServer.randomBytes(64 * 1024));
+        assertTrue(server.createBootstrapper(path).update());
+        serveVersion("2", "app", TestServer.randomBytes(64 * 1024));
+        ApexBootstrapper bootstrapper = server.createBootstrapper(path);
+
+        JsonObject other = readMeta();
+        other.addProperty("autoUpdate", false);
+        other.addProperty("updateMode", "background");
+        Files.write(metaFile.toPath(), other.toString().getBytes(StandardCharsets.UTF_8));
+        assertTrue(bootstrapper.update());
+
+        JsonObject meta = readMeta();
+        assertEquals("2", meta.get("installedVersion").getAsString());
+        assertFalse(meta.get("autoUpdate").getAsBoolean());
+        assertEquals("background", meta.get("updateMode").getAsString());
+    }
+
+    @Test
+    void statusSetBeforeTheReporterIsShownOnceItExists() {
+        serveVersion("1", "app", TestServer.randomBytes(64 * 1024));
+        ApexBootstrapper bootstrapper = server.createBootstrapper(path);
+        assertTrue(bootstrapper.update());
+
+        List<String> statuses = new ArrayList<>();
+        bootstrapper.setProgressReporter(new HeadlessProgressReporter() {
+            @Override
+            public void setStatus(String status) {
+                statuses.add(status);
+            }
+        });
+
+        assertEquals(Collections.singletonList("Updating to version 1..."), statuses);
+    }
+
+    @Test
+    void metadataUsesTheSharedTransport() throws IOException {
+        serveVersion("1", "app", TestServer.randomBytes(64 * 1024));
+        ApexBootstrapper bootstrapper = server.createBootstrapper(path);
+        assumeTrue(bootstrapper.getTransport().getClass().getSimpleName().equals("JavaHttpTransport"), "the runtime has no java.net.http client");
+
+        // only the java.net.http client offers cleartext servers an upgrade to HTTP/2
+        TestServer.Request request = server.getResource(TestServer.METADATA).getRequests().get(0);
+        assertEquals("h2c", request.getHeader("Upgrade"));
+    }
+
+    private void serveVersion(String version, String name, byte[] content) {
+        String jar = "/" + name + "-" + version + ".jar";
+        server.serve(jar, content);
+        server.serve(TestServer.METADATA, "{\"version\": \"" + version + "\", \"name\": \"" + name + "\", \"downloadUrl\": \""
+                + server.url(jar) + "\", \"sha256\": \"" + TestServer.sha256(content) + "\", \"size\": " + content.length + "}");
+    }
+
+    private ApexBootstrapper createLaunchFirst() {
+        return new ApexBootstrapper(server.url(TestServer.METADATA), path.getPath(), metaFile, new String[0], false, false, true);
+    }
+
+    private JsonObject awaitStaged() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            JsonObject meta = readMeta();
+            if (meta.has("stagedVersion")) {
+                return meta;
+            }
+            Thread.sleep(20);
+        }
+        fail("The background update did not stage a version.");
+        return null;
+    }
+
+    private JsonObject readMeta() throws IOException {
+        return JsonParser.parseString(new String(Files.readAllBytes(metaFile.toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+    }
+}
@@ -0,0 +1,84 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CdsArchiveTest {
+
+    private static final String HASH = TestServer.sha256(new byte[0]);
+
+    @TempDir
+    File directory;
+
+    private TestServer server;
+    private CdsArchive archive;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TestServer();
+        archive = new CdsArchive(server.createBootstrapper(new File(directory, "path")), new File(directory, "cache"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void knownRuntimeGetsNoIgnoredOptions() throws IOException {
+        File java = createRuntime("JAVA_VERSION=\"21.0.4\"");
+
+        List<String> arguments = archive.prepare(java, HASH, Collections.emptyList());
+
+        assertEquals(21, CdsArchive.getFeatureVersion(java));
+        assertEquals(1, arguments.size());
+        assertTrue(arguments.get(0).startsWith("-XX:ArchiveClassesAtExit="));
+    }
+
+    @Test
+    void unknownRuntimeIgnoresUnrecognizedOptions() throws IOException {
+        File java = createRuntime(null);
+
+        List<String> arguments = archive.prepare(java, HASH, Collections.emptyList());
+
+        assertEquals(-1, CdsArchive.getFeatureVersion(java));
+        assertEquals("-XX:+IgnoreUnrecognizedVMOptions", arguments.get(0));
+        assertTrue(arguments.get(1).startsWith("-XX:ArchiveClassesAtExit="));
+    }
+
+    @Test
+    void oldRuntimeLaunchesWithoutArchive() throws IOException {
+        File java = createRuntime("JAVA_VERSION=\"1.8.0_392\"");
+
+        assertEquals(8, CdsArchive.getFeatureVersion(java));
+        assertTrue(archive.prepare(java, HASH, Collections.emptyList()).isEmpty());
+        assertTrue(archive.reuse(java, HASH, Collections.emptyList()).isEmpty());
+    }
+
+    /**
+     * Creates a runtime with a base CDS archive and the given release file.
+     */
+    private File createRuntime(String release) throws IOException {
+        File home = new File(directory, "jdk");
+        File java = JvmOptions.getExecutable(home);
+        File base = new File(home, "lib/server/classes.jsa");
+        assertTrue(java.getParentFile().mkdirs() && base.getParentFile().mkdirs());
+        Files.write(java.toPath(), new byte[0]);
+        Files.write(base.toPath(), new byte[0]);
+        if (release != null) {
+            Files.write(new File(home, "release").toPath(), release.getBytes(StandardCharsets.UTF_8));
+        }
+        return java;
+    }
+}
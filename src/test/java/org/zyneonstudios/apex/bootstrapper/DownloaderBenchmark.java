@@ -0,0 +1,180 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+
+/**
+ * Compares the {@link Downloader} with the copy loop it replaced, which read the response into a heap
+ * {@code byte[8192]} and wrote it to a {@link FileOutputStream}. Both download the same file from a local
+ * {@link TestServer}, and the benchmark prints their throughput and the bytes allocated by the downloading thread per
+ * downloaded megabyte. The loop is measured a second time with a SHA-256 of the data, which the Downloader computes
+ * for verification, once more over the {@link HttpTransport} of the bootstrapper instead of {@link HttpURLConnection},
+ * which separates the cost of the transport from the cost of the copy. Segmented downloads are measured with the hash computed while the segments arrive and, like
+ * before, by hashing the finished file again. The fixed costs of a Downloader run, its HEAD probe, the SHA-256 of the
+ * data and the fsync of the file, are measured on their own. It is not run by the test suite; run it after
+ * {@code mvn test-compile} with the test classpath, for example:
+ * <pre>java -cp target/test-classes:target/classes:gson.jar org.zyneonstudios.apex.bootstrapper.DownloaderBenchmark [sizeMb] [runs]</pre>
+ */
+public class DownloaderBenchmark {
+
+    private static final String PATH = "/benchmark.jar";
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        File directory = Files.createTempDirectory("apex-benchmark").toFile();
+        try (TestServer server = new TestServer()) {
+            byte[] content = TestServer.randomBytes(sizeMb * 1024 * 1024);
+            server.serve(PATH, content);
+            ApexBootstrapper bootstrapper = server.createBootstrapper(new File(directory, "path"));
+            File destination = new File(directory, "benchmark.download");
+            String url = server.url(PATH);
+
+            // warm up both paths, the JIT and the connection pools before measuring
+            for (int i = 0; i < 2; i++) {
+                copyLoop(url, destination, null);
+                new Downloader(bootstrapper, 1).download(url, destination);
+                new Downloader(bootstrapper, 4).download(url, destination);
+            }
+            Result loop = new Result("byte[8192] + FileOutputStream");
+            Result hashedLoop = new Result("byte[8192] + FileOutputStream + SHA-256");
+            Result transportLoop = new Result("same loop + SHA-256 over the HttpTransport");
+            Result channel = new Result("Downloader (FileChannel.transferFrom)");
+            Result segmented = new Result("Downloader, 4 segments");
+            Result rehashed = new Result("Downloader, 4 segments + hash of the file");
+            Result probe = new Result("  HEAD probe");
+            Result hash = new Result("  SHA-256 of the data");
+            Result fsync = new Result("  fsync of the file");
+            for (int i = 0; i < runs; i++) {
+                loop.measure(() -> copyLoop(url, destination, null));
+                hashedLoop.measure(() -> copyLoop(url, destination, Checksums.sha256()));
+                transportLoop.measure(() -> copyLoop(bootstrapper.getTransport(), url, destination));
+                channel.measure(() -> download(bootstrapper, 1, url, destination));
+                segmented.measure(() -> download(bootstrapper, 4, url, destination));
+                rehashed.measure(() -> {
+                    download(bootstrapper, 4, url, destination);
+                    Checksums.sha256(destination);
+                });
+                probe.measure(() -> {
+                    try (HttpTransport.Response response = bootstrapper.getTransport().send("HEAD", url, Collections.emptyMap(), 10000, 10000)) {
+                        response.getStatus();
+                    }
+                });
+                hash.measure(() -> Checksums.sha256().digest(content));
+                fsync.measure(() -> {
+                    try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+                        file.write(content, 0, 4096);
+                        file.getChannel().force(true);
+                    }
+                });
+            }
+            System.out.println("Downloaded " + sizeMb + " MB " + runs + " times per path:");
+            loop.print(sizeMb);
+            hashedLoop.print(sizeMb);
+            transportLoop.print(sizeMb);
+            channel.print(sizeMb);
+            segmented.print(sizeMb);
+            rehashed.print(sizeMb);
+            System.out.println("Fixed costs of a download:");
+            probe.printTime();
+            hash.printTime();
+            fsync.printTime();
+        } finally {
+            File[] files = new File(directory, "path").listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            new File(directory, "path").delete();
+            new File(directory, "benchmark.download").delete();
+            directory.delete();
+        }
+    }
+
+    private static void download(ApexBootstrapper bootstrapper, int segments, String url, File destination) throws IOException {
+        if (new Downloader(bootstrapper, segments).download(url, destination) == null) {
+            throw new IOException("Download failed.");
+        }
+    }
+
+    private static void copyLoop(String url, File destination, MessageDigest digest) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(destination)) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                if (digest != null) {
+                    digest.update(buffer, 0, bytesRead);
+                }
+                out.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void copyLoop(HttpTransport transport, String url, File destination) throws IOException {
+        MessageDigest digest = Checksums.sha256();
+        try (HttpTransport.Response response = transport.send("GET", url, Collections.emptyMap(), 10000, 10000);
+             InputStream in = response.getBody(); OutputStream out = new FileOutputStream(destination)) {
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+                out.write(buffer, 0, bytesRead);
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private interface Run {
+        void run() throws Exception;
+    }
+
+    private static class Result {
+        private final String name;
+        private long nanos = 0;
+        private long allocated = 0;
+        private int runs = 0;
+
+        private Result(String name) {
+            this.name = name;
+        }
+
+        private void measure(Run run) throws Exception {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            run.run();
+            nanos += System.nanoTime() - start;
+            allocated += allocatedBytes() - allocatedBefore;
+            runs++;
+        }
+
+        private void print(int sizeMb) {
+            double seconds = nanos / 1e9 / runs;
+            System.out.printf("  %-42s %8.1f MB/s %10.1f KB allocated per MB%n", name, sizeMb / seconds, allocated / 1024.0 / runs / sizeMb);
+        }
+
+        private void printTime() {
+            System.out.printf("  %-42s %8.1f ms%n", name, nanos / 1e6 / runs);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloaderTest {
+
+    private static final int SIZE = 4 * 1024 * 1024;
+    private static final String PATH = "/app.jar";
+
+    @TempDir
+    File directory;
+
+    private TestServer server;
+    private ApexBootstrapper bootstrapper;
+    private byte[] content;
+    private File destination;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TestServer();
+        bootstrapper = server.createBootstrapper(new File(directory, "path"));
+        content = TestServer.randomBytes(SIZE);
+        destination = new File(directory, "app.download");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void downloadsRangeSegmentsInParallel() throws IOException {
+        TestServer.Resource resource = server.serve(PATH, content);
+
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 4).download(server.url(PATH), destination));
+
+        List<TestServer.Request> requests = resource.getRequests("GET");
+        assertEquals(4, requests.size());
+        for (TestServer.Request request : requests) {
+            assertNotNull(request.getHeader("Range"));
+        }
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+        assertFalse(Downloader.getStateFile(destination).exists());
+    }
+
+    @Test
+    void resumesInterruptedSegments() throws IOException {
+        TestServer.Resource resource = server.serve(PATH, content).failAfter(256 * 1024, 4);
+
+        assertNull(new Downloader(bootstrapper, 4).download(server.url(PATH), destination));
+        assertTrue(Downloader.getStateFile(destination).isFile());
+
+        int firstAttempt = resource.getRequests("GET").size();
+        long sentBefore = resource.getBytesSent();
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 4).download(server.url(PATH), destination));
+
+        List<TestServer.Request> resumed = resource.getRequests("GET").subList(firstAttempt, resource.getRequests("GET").size());
+        assertEquals(4, resumed.size());
+        long segmentSize = SIZE / 4;
+        for (TestServer.Request request : resumed) {
+            long start = Long.parseLong(request.getHeader("Range").substring(6).split("-")[0]);
+            assertTrue(start % segmentSize > 0, "segment restarted from its beginning: " + request.getHeader("Range"));
+        }
+        assertTrue(resource.getBytesSent() - sentBefore < SIZE);
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+        assertFalse(Downloader.getStateFile(destination).exists());
+    }
+
+    @Test
+    void usesSingleStreamWhenServerIgnoresRange() throws IOException {
+        TestServer.Resource resource = server.serve(PATH, content).ignoringRanges();
+
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 4).download(server.url(PATH), destination));
+
+        List<TestServer.Request> requests = resource.getRequests("GET");
+        assertNull(requests.get(requests.size() - 1).getHeader("Range"));
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+        assertFalse(Downloader.getStateFile(destination).exists());
+    }
+
+    @Test
+    void usesSingleStreamWithoutAcceptRanges() throws IOException {
+        TestServer.Resource resource = server.serve(PATH, content).withoutRanges();
+
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 4).download(server.url(PATH), destination));
+
+        List<TestServer.Request> requests = resource.getRequests("GET");
+        assertEquals(1, requests.size());
+        assertNull(requests.get(0).getHeader("Range"));
+    }
+
+    @Test
+    void decompressesGzipWhileDownloading() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content);
+        }
+        server.serve(PATH, compressed.toByteArray());
+
+        Downloader downloader = new Downloader(bootstrapper, 4);
+        assertEquals(TestServer.sha256(content), downloader.download(server.url(PATH), destination, true));
+
+        assertEquals(TestServer.sha256(compressed.toByteArray()), downloader.getTransferredHash());
+        assertEquals(compressed.size(), downloader.getTransferredBytes());
+        assertEquals(SIZE, downloader.getWrittenBytes());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    void restartsWithUnreadableStateFile() throws IOException {
+        TestServer.Resource resource = server.serve(PATH, content);
+        Files.write(destination.toPath(), new byte[SIZE]);
+        Files.write(Downloader.getStateFile(destination).toPath(), "{\"segments\": [".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 4).download(server.url(PATH), destination));
+
+        assertEquals(SIZE, resource.getBytesSent());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    void restartsWithInconsistentStateFile() throws IOException {
+        TestServer.Resource resource = server.serve(PATH, content);
+        Files.write(destination.toPath(), new byte[SIZE]);
+        String state = "{\"url\": \"" + server.url(PATH) + "\", \"length\": " + SIZE + ", \"segments\": ["
+                + "{\"start\": 0, \"end\": " + (SIZE / 2 - 1) + ", \"position\": " + SIZE + "},"
+                + "{\"start\": " + SIZE / 2 + ", \"end\": " + (SIZE - 1) + ", \"position\": " + SIZE / 2 + "}]}";
+        Files.write(Downloader.getStateFile(destination).toPath(), state.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 4).download(server.url(PATH), destination));
+
+        assertEquals(SIZE, resource.getBytesSent());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    }
+}
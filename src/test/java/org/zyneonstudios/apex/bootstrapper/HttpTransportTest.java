@@ -0,0 +1,75 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class HttpTransportTest {
+
+    private static final String PATH = "/app.jar";
+
+    @TempDir
+    File directory;
+
+    private TestServer server;
+    private HttpTransport transport;
+    private TestServer.Resource resource;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TestServer();
+        transport = HttpTransport.create(server.createBootstrapper(new File(directory, "path")));
+        resource = server.serve(PATH, TestServer.randomBytes(1024));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void rangeRequestsUseHttp11() throws IOException {
+        assumeTrue(transport.getClass().getSimpleName().equals("JavaHttpTransport"), "the runtime has no java.net.http client");
+
+        try (HttpTransport.Response response = transport.send("GET", server.url(PATH), Collections.emptyMap(), 10000, 10000)) {
+            assertEquals(200, response.getStatus());
+        }
+        try (HttpTransport.Response response = transport.send("GET", server.url(PATH), Collections.singletonMap("Range", "bytes=0-99"), 10000, 10000)) {
+            assertEquals(206, response.getStatus());
+        }
+
+        // the client asks cleartext servers to upgrade to HTTP/2, unless the request is pinned to HTTP/1.1
+        assertEquals("h2c", resource.getRequests().get(0).getHeader("Upgrade"));
+        assertNull(resource.getRequests().get(1).getHeader("Upgrade"));
+    }
+
+    @Test
+    void bodyStaysOpenWhileTheCallerIsBusy() throws Exception {
+        byte[] content = TestServer.randomBytes(256 * 1024);
+        server.serve(PATH, content);
+
+        try (HttpTransport.Response response = transport.send("GET", server.url(PATH), Collections.emptyMap(), 10000, 1000)) {
+            InputStream body = response.getBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read = body.read(buffer);
+            out.write(buffer, 0, read);
+            // longer than the read timeout, like the rate limiter pacing a slow download
+            Thread.sleep(2500);
+            while ((read = body.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            assertArrayEquals(content, out.toByteArray());
+        }
+    }
+}
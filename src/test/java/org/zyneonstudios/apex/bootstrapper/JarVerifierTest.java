@@ -0,0 +1,156 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JarVerifierTest {
+
+    @TempDir
+    File directory;
+
+    private TestServer server;
+    private ApexBootstrapper bootstrapper;
+    private File jar;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TestServer();
+        bootstrapper = server.createBootstrapper(new File(directory, "path"));
+        jar = new File(directory, "app.jar");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void intactJarIsVerifiedOnce() throws IOException {
+        Files.write(jar.toPath(), createJar(new byte[0]));
+
+        JarVerifier first = new JarVerifier(bootstrapper);
+        assertTrue(first.verify(jar));
+        assertTrue(first.getInflatedBytes() > 0);
+        assertTrue(JarVerifier.getMarker(jar).isFile());
+
+        JarVerifier second = new JarVerifier(bootstrapper);
+        assertTrue(second.verify(jar));
+        assertEquals(0, second.getInflatedBytes());
+    }
+
+    @Test
+    void changedJarIsVerifiedAgain() throws IOException {
+        Files.write(jar.toPath(), createJar(new byte[0]));
+        assertTrue(new JarVerifier(bootstrapper).verify(jar));
+
+        damage(jar);
+        assertTrue(jar.setLastModified(jar.lastModified() + 2000));
+
+        assertFalse(new JarVerifier(bootstrapper).verify(jar));
+        assertFalse(JarVerifier.getMarker(jar).exists());
+    }
+
+    @Test
+    void damagedJarIsRejected() throws IOException {
+        Files.write(jar.toPath(), createJar(new byte[0]));
+        damage(jar);
+
+        assertFalse(new JarVerifier(bootstrapper).verify(jar));
+        assertFalse(JarVerifier.getMarker(jar).exists());
+    }
+
+    @Test
+    void unreadableJarIsNotRejected() {
+        // reading a directory fails like a file that another program holds locked
+        assertTrue(jar.mkdirs());
+
+        assertTrue(new JarVerifier(bootstrapper).verify(jar));
+        assertFalse(JarVerifier.getMarker(jar).exists());
+    }
+
+    @Test
+    void jarWithAStubIsVerified() throws IOException {
+        Files.write(jar.toPath(), createJar("#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(new JarVerifier(bootstrapper).verify(jar));
+    }
+
+    @Test
+    void verifiedJarCanBeDeleted() throws IOException {
+        Files.write(jar.toPath(), createJar(new byte[0]));
+        assertTrue(new JarVerifier(bootstrapper).verify(jar));
+
+        // a mapping that outlives the check would keep the file from being deleted on Windows
+        assertTrue(jar.delete());
+    }
+
+    @Test
+    void deletingAnArtifactDeletesItsMarker() throws IOException {
+        ArtifactStore store = new ArtifactStore(new File(directory, "cache"));
+        byte[] content = createJar(new byte[0]);
+        String hash = TestServer.sha256(content);
+        Files.write(jar.toPath(), content);
+        File artifact = store.publish(jar, hash);
+        assertTrue(new JarVerifier(bootstrapper).verify(artifact));
+
+        assertTrue(store.delete(hash));
+        assertFalse(artifact.exists());
+        assertFalse(JarVerifier.getMarker(artifact).exists());
+    }
+
+    /**
+     * Creates a jar with a deflated and a stored entry, behind the given stub.
+     */
+    private static byte[] createJar(byte[] stub) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(stub);
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 20_000; i++) {
+                text.append("line ").append(i).append('\n');
+            }
+            zip.putNextEntry(new ZipEntry("text.txt"));
+            zip.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            byte[] data = TestServer.randomBytes(32 * 1024);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            ZipEntry stored = new ZipEntry("data.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(data.length);
+            stored.setCompressedSize(data.length);
+            stored.setCrc(crc.getValue());
+            zip.putNextEntry(stored);
+            zip.write(data);
+            zip.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Flips a byte in the compressed data of the first entry, keeping the size of the jar.
+     */
+    private static void damage(File jar) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(jar, "rw")) {
+            file.seek(200);
+            int value = file.read();
+            file.seek(200);
+            file.write(value ^ 0xFF);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JvmOptionsTest {
+
+    @Test
+    void localArgumentsReplaceRemoteOptions() {
+        JvmOptions options = JvmOptions.resolve(
+                json("{\"jvmArgs\": [\"-Xmx2g\", \"-XX:+UseG1GC\", \"-Dapp.mode=remote\", \"-XX:MaxGCPauseMillis=100\", \"--enable-preview\"]}"),
+                json("{\"jvmArgs\": [\"-Xmx4g\", \"-XX:-UseG1GC\", \"-Dapp.mode=local\", \"--enable-preview\"]}"));
+
+        List<String> arguments = options.getArguments();
+        assertEquals(Arrays.asList("-XX:MaxGCPauseMillis=100", "-Xmx4g", "-XX:-UseG1GC", "-Dapp.mode=local", "--enable-preview"), arguments);
+    }
+
+    @Test
+    void matchingProfileReplacesItsSourceArguments() {
+        JvmOptions options = JvmOptions.resolve(
+                json("{\"jvmArgs\": [\"-Xss1m\"], \"jvmProfiles\": [{\"jvmArgs\": [\"-Xss4m\"]}]}"), new JsonObject());
+
+        assertEquals(Arrays.asList("-Xss4m"), options.getArguments());
+    }
+
+    @Test
+    void localMaxHeapReplacesRemoteMaxHeapPercent() {
+        JvmOptions options = JvmOptions.resolve(json("{\"maxHeapPercent\": 50}"), json("{\"jvmArgs\": [\"-Xmx1g\"]}"));
+
+        assertEquals(Arrays.asList("-Xmx1g"), options.getArguments());
+    }
+
+    @Test
+    void localMaxHeapPercentReplacesRemoteMaxHeap() {
+        JvmOptions options = JvmOptions.resolve(json("{\"jvmArgs\": [\"-Xmx1g\"]}"), json("{\"maxHeapPercent\": 50}"));
+
+        List<String> arguments = options.getArguments();
+        assertFalse(arguments.contains("-Xmx1g"));
+        if (JvmOptions.getPhysicalMemoryMb() > 0) {
+            assertEquals(1, arguments.size());
+            assertTrue(arguments.get(0).startsWith("-Xmx"));
+        }
+    }
+
+    @Test
+    void laterCollectorReplacesAnEarlierOne() {
+        JvmOptions options = JvmOptions.resolve(
+                json("{\"jvmArgs\": [\"-XX:+UseParallelGC\", \"-XX:+UseStringDeduplication\"], \"jvmProfiles\": [{\"jvmArgs\": [\"-XX:+UseG1GC\"]}]}"),
+                new JsonObject());
+
+        assertEquals(Arrays.asList("-XX:+UseStringDeduplication", "-XX:+UseG1GC"), options.getArguments());
+    }
+
+    @Test
+    void localJavaPathWinsOverTheManagedRuntime(@TempDir File directory) {
+        File java = new File(directory, "jdk");
+        JvmOptions options = JvmOptions.resolve(json("{\"javaPath\": \"" + json(java) + "\"}"), json("{\"javaPath\": \"" + json(java) + "\"}"));
+        options.setRuntimeHome(new File(directory, "runtime"));
+
+        assertEquals(java, options.getJavaExecutable());
+    }
+
+    @Test
+    void managedRuntimeReplacesTheRemoteJavaPath(@TempDir File directory) {
+        File runtime = new File(directory, "runtime");
+        JvmOptions options = JvmOptions.resolve(json("{\"javaPath\": \"" + json(new File(directory, "jdk")) + "\"}"), new JsonObject());
+        options.setRuntimeHome(runtime);
+
+        assertEquals(JvmOptions.getExecutable(runtime), options.getJavaExecutable());
+    }
+
+    private static String json(File file) {
+        return file.getAbsolutePath().replace("\\", "\\\\");
+    }
+
+    private static JsonObject json(String json) {
+        return JsonParser.parseString(json).getAsJsonObject();
+    }
+}
@@ -0,0 +1,234 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ManagedRuntimeTest {
+
+    private static final String VERSION = "21.0.4";
+    private static final String JAVA = "bin/" + JvmOptions.getExecutable(new File("")).getName();
+    private static final boolean POSIX = !System.getProperty("os.name").toLowerCase().contains("win");
+
+    @TempDir
+    File directory;
+
+    private TestServer server;
+    private ApexBootstrapper bootstrapper;
+    private File runtimeDir;
+    private File cacheDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TestServer();
+        bootstrapper = server.createBootstrapper(new File(directory, "path"));
+        runtimeDir = new File(directory, "runtime");
+        cacheDir = new File(directory, "cache");
+        assertTrue(cacheDir.mkdirs());
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void installsZip() throws IOException {
+        ManagedRuntime runtime = serve("/jdk.zip", createZip(createRuntime("jdk-21/")), null);
+
+        assertInstalled(runtime, "jdk-21");
+    }
+
+    @Test
+    void installsTar() throws IOException {
+        ManagedRuntime runtime = serve("/jdk.tar", createTar(createRuntime("jdk-21/")), null);
+
+        assertInstalled(runtime, "jdk-21");
+    }
+
+    @Test
+    void installsTarGz() throws IOException {
+        ManagedRuntime runtime = serve("/jdk.tar.gz", gzip(createTar(createRuntime("jdk-21/"))), null);
+
+        assertInstalled(runtime, "jdk-21");
+    }
+
+    @Test
+    void formatOverridesTheUrl() throws IOException {
+        ManagedRuntime runtime = serve("/download/21", gzip(createTar(createRuntime("jdk-21/"))), "tar.gz");
+
+        assertInstalled(runtime, "jdk-21");
+    }
+
+    @Test
+    void findsTheHomeOfMacRuntimes() throws IOException {
+        ManagedRuntime runtime = serve("/jdk.tar.gz", gzip(createTar(createRuntime("jdk-21.jdk/Contents/Home/"))), null);
+
+        assertInstalled(runtime, "jdk-21.jdk/Contents/Home");
+    }
+
+    @Test
+    void rejectsAnArchiveWithTheWrongHash() throws IOException {
+        byte[] archive = createZip(createRuntime("jdk-21/"));
+        server.serve("/jdk.zip", archive);
+        ManagedRuntime runtime = ManagedRuntime.select(bootstrapper, createMetadata("/jdk.zip", TestServer.sha256(new byte[1]), archive.length, null), runtimeDir);
+
+        assertFalse(runtime.install(bootstrapper, cacheDir, new StartupMetrics()));
+
+        assertFalse(runtime.isInstalled());
+        assertNull(runtime.use());
+        assertFalse(new File(runtimeDir, VERSION).exists());
+        assertEquals(0, list(cacheDir).length);
+    }
+
+    @Test
+    void rejectsAnArchiveWithoutJava() throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("jdk-21/release", "JAVA_VERSION=\"21.0.4\"".getBytes(StandardCharsets.UTF_8));
+        ManagedRuntime runtime = serve("/jdk.zip", createZip(files), null);
+
+        assertFalse(runtime.install(bootstrapper, cacheDir, new StartupMetrics()));
+
+        assertFalse(runtime.isInstalled());
+        assertEquals(0, list(runtimeDir).length);
+    }
+
+    @Test
+    void reinstallsAHalfInstalledRuntime() throws IOException {
+        ManagedRuntime runtime = serve("/jdk.zip", createZip(createRuntime("jdk-21/")), null);
+        // an install that was interrupted before it wrote the marker
+        File java = new File(runtimeDir, VERSION + "/jdk-21/" + JAVA);
+        assertTrue(java.getParentFile().mkdirs());
+        Files.write(java.toPath(), new byte[0]);
+
+        assertFalse(runtime.isInstalled());
+        assertNull(runtime.use());
+
+        assertInstalled(runtime, "jdk-21");
+    }
+
+    private ManagedRuntime serve(String path, byte[] archive, String format) {
+        server.serve(path, archive);
+        ManagedRuntime runtime = ManagedRuntime.select(bootstrapper, createMetadata(path, TestServer.sha256(archive), archive.length, format), runtimeDir);
+        assertNotNull(runtime);
+        assertEquals(VERSION, runtime.getVersion());
+        return runtime;
+    }
+
+    private void assertInstalled(ManagedRuntime runtime, String home) throws IOException {
+        assertTrue(runtime.install(bootstrapper, cacheDir, new StartupMetrics()));
+
+        assertTrue(runtime.isInstalled());
+        File javaHome = runtime.use();
+        assertEquals(new File(new File(runtimeDir, VERSION), home), javaHome);
+        File java = new File(javaHome, JAVA);
+        assertArrayEquals(createRuntime("").get(JAVA), Files.readAllBytes(java.toPath()));
+        if (POSIX) {
+            assertTrue(java.canExecute());
+        }
+        assertEquals(1, list(runtimeDir).length, "a temporary directory was left behind");
+        assertEquals(0, list(cacheDir).length, "the archive was not deleted");
+    }
+
+    private JsonObject createMetadata(String path, String sha256, long size, String format) {
+        JsonObject runtime = new JsonObject();
+        runtime.addProperty("version", VERSION);
+        runtime.addProperty("url", server.url(path));
+        runtime.addProperty("sha256", sha256);
+        runtime.addProperty("size", size);
+        if (format != null) {
+            runtime.addProperty("format", format);
+        }
+        JsonArray runtimes = new JsonArray();
+        runtimes.add(runtime);
+        JsonObject metadata = new JsonObject();
+        metadata.add("runtimes", runtimes);
+        return metadata;
+    }
+
+    private static File[] list(File directory) {
+        File[] files = directory.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    private static Map<String, byte[]> createRuntime(String home) {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put(home + JAVA, "#!/bin/sh\necho java\n".getBytes(StandardCharsets.UTF_8));
+        files.put(home + "release", "JAVA_VERSION=\"21.0.4\"".getBytes(StandardCharsets.UTF_8));
+        return files;
+    }
+
+    private static byte[] createZip(Map<String, byte[]> files) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                zip.putNextEntry(new ZipEntry(file.getKey()));
+                zip.write(file.getValue());
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the files as a ustar archive, with the files in {@code bin} executable.
+     */
+    private static byte[] createTar(Map<String, byte[]> files) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            byte[] content = file.getValue();
+            byte[] header = new byte[512];
+            put(header, 0, file.getKey());
+            put(header, 100, String.format("%07o", file.getKey().contains("bin/") ? 0755 : 0644));
+            put(header, 108, "0000000");
+            put(header, 116, "0000000");
+            put(header, 124, String.format("%011o", content.length));
+            put(header, 136, String.format("%011o", System.currentTimeMillis() / 1000));
+            header[156] = '0';
+            put(header, 257, "ustar");
+            put(header, 263, "00");
+            for (int i = 148; i < 156; i++) {
+                header[i] = ' ';
+            }
+            int checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xFF;
+            }
+            put(header, 148, String.format("%06o", checksum));
+            out.write(header);
+            out.write(content);
+            out.write(new byte[(512 - content.length % 512) % 512]);
+        }
+        out.write(new byte[1024]);
+        return out.toByteArray();
+    }
+
+    private static void put(byte[] header, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,157 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MirrorsTest {
+
+    private static final String PATH = "/app.jar";
+    private static final long SLOW = Mirrors.DEFAULT_HEDGE_DELAY + 1000;
+
+    @TempDir
+    File directory;
+
+    private TestServer primary;
+    private TestServer mirror;
+    private ApexBootstrapper bootstrapper;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        primary = new TestServer();
+        mirror = new TestServer();
+        bootstrapper = primary.createBootstrapper(new File(directory, "path"));
+        content = TestServer.randomBytes(256 * 1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        primary.close();
+        mirror.close();
+    }
+
+    @Test
+    void fasterMirrorWinsTheHedge() {
+        primary.serve(PATH, content).delay(SLOW);
+        mirror.serve(PATH, content).delay(50);
+        JsonObject localMetaData = new JsonObject();
+        Mirrors mirrors = createMirrors(localMetaData);
+
+        List<String> candidates = mirrors.getCandidates(primary.url(PATH));
+        assertEquals(primary.url(PATH), candidates.get(0));
+        long start = System.nanoTime();
+        Mirrors.Result<String> result = mirrors.race(candidates, this::get);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertNotNull(result);
+        assertEquals(mirror.url(PATH), result.url);
+        assertTrue(elapsed >= Mirrors.DEFAULT_HEDGE_DELAY, "the mirror was asked before the hedge delay: " + elapsed + " ms");
+        assertTrue(elapsed < SLOW, "the race waited for the slow primary: " + elapsed + " ms");
+
+        JsonObject fast = getStats(localMetaData, mirror);
+        assertEquals(0, fast.get("failures").getAsInt());
+        assertTrue(fast.get("latencyMs").getAsLong() < Mirrors.DEFAULT_HEDGE_DELAY);
+        assertEquals(mirror.url(PATH), mirrors.getCandidates(primary.url(PATH)).get(0));
+    }
+
+    @Test
+    void slowPrimaryIsRecordedOnceItAnswers() throws InterruptedException {
+        primary.serve(PATH, content).delay(SLOW);
+        mirror.serve(PATH, content);
+        JsonObject localMetaData = new JsonObject();
+        Mirrors mirrors = createMirrors(localMetaData);
+
+        assertNotNull(mirrors.race(mirrors.getCandidates(primary.url(PATH)), this::get));
+
+        long deadline = System.currentTimeMillis() + SLOW * 2;
+        while (getStats(localMetaData, primary) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        JsonObject slow = getStats(localMetaData, primary);
+        assertNotNull(slow, "the losing request was not recorded");
+        assertTrue(slow.get("latencyMs").getAsLong() >= SLOW - 50);
+        assertTrue(slow.get("latencyMs").getAsLong() > getStats(localMetaData, mirror).get("latencyMs").getAsLong());
+    }
+
+    @Test
+    void failingMirrorIsRecordedAndMovedLast() {
+        primary.serve(PATH, content).status(500);
+        mirror.serve(PATH, content);
+        JsonObject localMetaData = new JsonObject();
+        Mirrors mirrors = createMirrors(localMetaData);
+
+        Mirrors.Result<String> result = mirrors.race(mirrors.getCandidates(primary.url(PATH)), this::get);
+
+        assertNotNull(result);
+        assertEquals(mirror.url(PATH), result.url);
+        JsonObject failed = getStats(localMetaData, primary);
+        assertEquals(1, failed.get("failures").getAsInt());
+        assertTrue(failed.has("lastFailure"));
+        assertEquals(mirror.url(PATH), mirrors.getCandidates(primary.url(PATH)).get(0));
+    }
+
+    @Test
+    void downloadUsesTheFasterMirror() throws IOException, InterruptedException {
+        TestServer.Resource slow = primary.serve(PATH, content).delay(SLOW);
+        TestServer.Resource fast = mirror.serve(PATH, content);
+        bootstrapper.getMirrors().setPrefixes(createMetadata());
+        File destination = new File(directory, "app.download");
+
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper).download(primary.url(PATH), destination));
+
+        assertTrue(slow.getRequests("GET").isEmpty());
+        assertFalse(fast.getRequests("GET").isEmpty());
+        assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+        // the primary is ranked by its fast metadata response until its slow probe is recorded
+        long deadline = System.currentTimeMillis() + SLOW * 2;
+        while (!bootstrapper.getMirrors().getCandidates(primary.url(PATH)).get(0).equals(mirror.url(PATH))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(mirror.url(PATH), bootstrapper.getMirrors().getCandidates(primary.url(PATH)).get(0));
+    }
+
+    private Mirrors createMirrors(JsonObject localMetaData) {
+        Mirrors mirrors = new Mirrors(bootstrapper, localMetaData);
+        mirrors.setPrefixes(createMetadata());
+        return mirrors;
+    }
+
+    private JsonObject createMetadata() {
+        JsonArray prefixes = new JsonArray();
+        prefixes.add(primary.url("/"));
+        prefixes.add(mirror.url("/"));
+        JsonObject metadata = new JsonObject();
+        metadata.add("mirrors", prefixes);
+        return metadata;
+    }
+
+    private String get(String url) throws IOException {
+        try (HttpTransport.Response response = bootstrapper.getTransport().send("GET", url, Collections.emptyMap(), 10000, 10000)) {
+            return response.getStatus() == 200 ? url : null;
+        }
+    }
+
+    private JsonObject getStats(JsonObject localMetaData, TestServer server) {
+        synchronized (bootstrapper) {
+            if (!localMetaData.has("mirrorStats")) {
+                return null;
+            }
+            JsonObject stats = localMetaData.getAsJsonObject("mirrorStats");
+            String origin = Mirrors.getOrigin(server.url("/"));
+            return stats.has(origin) ? stats.getAsJsonObject(origin) : null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    private static final int RATE = 1024 * 1024;
+
+    @TempDir
+    File directory;
+
+    private TestServer server;
+    private ApexBootstrapper bootstrapper;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TestServer();
+        bootstrapper = server.createBootstrapper(new File(directory, "path"));
+        bootstrapper.setRateLimits(RATE, -1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @Test
+    void cappedDownloadTakesAtLeastSizeOverRate() {
+        byte[] content = TestServer.randomBytes(RATE / 2);
+        server.serve("/app.jar", content);
+
+        long start = System.nanoTime();
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 1).download(server.url("/app.jar"), new File(directory, "app.download")));
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertAtLeast(minimumMillis(content.length), elapsed);
+    }
+
+    @Test
+    void segmentsShareTheLimit() {
+        byte[] content = TestServer.randomBytes((int) Downloader.MIN_SEGMENT_SIZE * 2);
+        TestServer.Resource resource = server.serve("/app.jar", content);
+        bootstrapper.setRateLimits(RATE * 2, -1);
+
+        long start = System.nanoTime();
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 2).download(server.url("/app.jar"), new File(directory, "app.download")));
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(2, resource.getRequests("GET").size());
+        assertAtLeast((content.length - RATE * 2 / 10) * 1000L / (RATE * 2), elapsed);
+    }
+
+    @Test
+    void concurrentDownloadsShareTheLimit() throws Exception {
+        int downloads = 3;
+        int size = RATE / 3;
+        ExecutorService executor = Executors.newFixedThreadPool(downloads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < downloads; i++) {
+                byte[] content = TestServer.randomBytes(size + i);
+                String path = "/library-" + i + ".jar";
+                server.serve(path, content);
+                expected.add(TestServer.sha256(content));
+                File destination = new File(directory, "library-" + i + ".download");
+                results.add(executor.submit(() -> new Downloader(bootstrapper, 1).download(server.url(path), destination)));
+            }
+            for (int i = 0; i < downloads; i++) {
+                assertEquals(expected.get(i), results.get(i).get());
+            }
+            long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+            // each download alone is allowed to take a third of this
+            assertAtLeast(minimumMillis((long) size * downloads), elapsed);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void slowLimitDoesNotTripTheReadTimeout() {
+        byte[] content = TestServer.randomBytes(8 * 1024);
+        server.serve("/app.jar", content);
+        int readTimeout = 1000;
+        // pacing a single buffer takes longer than a read may block
+        bootstrapper.setRateLimits(Downloader.BUFFER_SIZE * 1000L / readTimeout / 32, -1);
+        Downloader downloader = new Downloader(bootstrapper, 1);
+        downloader.setReadTimeout(readTimeout);
+
+        assertEquals(TestServer.sha256(content), downloader.download(server.url("/app.jar"), new File(directory, "app.download")));
+    }
+
+    @Test
+    void uncappedDownloadIsNotThrottled() {
+        byte[] content = TestServer.randomBytes(RATE);
+        server.serve("/app.jar", content);
+        bootstrapper.setRateLimits(0, -1);
+
+        long start = System.nanoTime();
+        assertEquals(TestServer.sha256(content), new Downloader(bootstrapper, 1).download(server.url("/app.jar"), new File(directory, "app.download")));
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsed < minimumMillis(content.length), "an uncapped download took " + elapsed + " ms");
+    }
+
+    /**
+     * The bucket may hold a tenth of a second of the rate, which a download can use without waiting.
+     */
+    private static long minimumMillis(long bytes) {
+        return (bytes - RATE / 10) * 1000 / RATE;
+    }
+
+    private static void assertAtLeast(long expected, long elapsed) {
+        assertTrue(elapsed >= expected, "took " + elapsed + " ms, the limit allows no less than " + expected + " ms");
+    }
+}
@@ -0,0 +1,52 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RestartPolicyTest {
+
+    @Test
+    void forkedProcessesRestartOnTheLowByte() {
+        assertTrue(RestartPolicy.isRestart(RestartPolicy.RESTART_EXIT_CODE, true));
+        assertTrue(RestartPolicy.isRestart(254, true));
+        assertFalse(RestartPolicy.isRestart(0, true));
+        assertFalse(RestartPolicy.isRestart(1, true));
+    }
+
+    @Test
+    void inProcessLaunchesRestartOnTheExactCode() {
+        assertTrue(RestartPolicy.isRestart(RestartPolicy.RESTART_EXIT_CODE, false));
+        assertFalse(RestartPolicy.isRestart(254, false));
+        assertFalse(RestartPolicy.isRestart(0, false));
+    }
+
+    @Test
+    void forkedJvmReportsTheRestartCode() throws Exception {
+        File java = new File(new File(System.getProperty("java.home"), "bin"), JvmOptions.getExecutable(new File("")).getName());
+        Process process = new ProcessBuilder(java.getPath(), "-cp", System.getProperty("java.class.path"), RestartingMain.class.getName())
+                .inheritIO().start();
+
+        assertTrue(RestartPolicy.isRestart(process.waitFor(), true));
+    }
+
+    static class RestartingMain {
+
+        public static void main(String[] args) {
+            System.exit(RestartPolicy.RESTART_EXIT_CODE);
+        }
+    }
+
+    @Test
+    void rapidRestartsBackOffUntilTheLimit() {
+        RestartPolicy policy = new RestartPolicy(3, 100);
+
+        assertEquals(0, policy.nextDelay(10));
+        assertEquals(100, policy.nextDelay(10));
+        assertEquals(200, policy.nextDelay(10));
+        assertEquals(-1, policy.nextDelay(10));
+        assertEquals(0, policy.nextDelay(60_000));
+    }
+}
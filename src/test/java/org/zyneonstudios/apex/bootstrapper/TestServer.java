@@ -0,0 +1,246 @@
+package org.zyneonstudios.apex.bootstrapper;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for an update server. Every resource supports HEAD and byte range requests, and can be told to answer
+ * late, to ignore ranges or to drop the connection in the middle of a response.
+ */
+final class TestServer implements Closeable {
+
+    static final String METADATA = "/metadata.json";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Resource> resources = new ConcurrentHashMap<>();
+
+    TestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url(String path) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+    }
+
+    Resource serve(String path, byte[] content) {
+        Resource resource = new Resource(content);
+        resources.put(path, resource);
+        return resource;
+    }
+
+    Resource serve(String path, String content) {
+        return serve(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    Resource getResource(String path) {
+        return resources.get(path);
+    }
+
+    /**
+     * Creates a bootstrapper for the given directory that reads its metadata from this server. Unless a test serves
+     * other metadata first, the metadata is empty.
+     */
+    ApexBootstrapper createBootstrapper(File directory) {
+        if (!resources.containsKey(METADATA)) {
+            serve(METADATA, "{}");
+        }
+        return new ApexBootstrapper(url(METADATA), directory.getPath(), new File(directory, "meta.json"), new String[0], false, false);
+    }
+
+    static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    static String sha256(byte[] content) {
+        return Checksums.toHex(Checksums.sha256().digest(content));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Resource resource = resources.get(exchange.getRequestURI().getPath());
+            if (resource == null) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                resource.handle(exchange);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    static final class Resource {
+
+        private volatile byte[] content;
+        private volatile boolean acceptRanges = true;
+        private volatile boolean honorRanges = true;
+        private volatile long delay = 0;
+        private volatile int status = 200;
+        private volatile long failAfter = -1;
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+        private Resource(byte[] content) {
+            this.content = content;
+        }
+
+        Resource content(byte[] content) {
+            this.content = content;
+            return this;
+        }
+
+        /**
+         * Neither advertises nor honours ranges.
+         */
+        Resource withoutRanges() {
+            this.acceptRanges = false;
+            this.honorRanges = false;
+            return this;
+        }
+
+        /**
+         * Advertises ranges, but answers range requests with the whole file.
+         */
+        Resource ignoringRanges() {
+            this.honorRanges = false;
+            return this;
+        }
+
+        Resource delay(long millis) {
+            this.delay = millis;
+            return this;
+        }
+
+        Resource status(int status) {
+            this.status = status;
+            return this;
+        }
+
+        /**
+         * Drops the connection after the given number of body bytes, for the given number of responses.
+         */
+        Resource failAfter(long bytes, int responses) {
+            this.failAfter = bytes;
+            this.failures.set(responses);
+            return this;
+        }
+
+        long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        List<Request> getRequests() {
+            return new ArrayList<>(requests);
+        }
+
+        List<Request> getRequests(String method) {
+            List<Request> list = new ArrayList<>();
+            for (Request request : requests) {
+                if (request.method.equals(method)) {
+                    list.add(request);
+                }
+            }
+            return list;
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            requests.add(new Request(exchange));
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            byte[] body = content;
+            Headers headers = exchange.getResponseHeaders();
+            if (acceptRanges) {
+                headers.set("Accept-Ranges", "bytes");
+            }
+            int start = 0;
+            int end = body.length - 1;
+            int code = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && honorRanges && range.startsWith("bytes=")) {
+                String[] bounds = range.substring(6).split("-", 2);
+                start = Integer.parseInt(bounds[0]);
+                end = bounds[1].isEmpty() ? body.length - 1 : Math.min(body.length - 1, Integer.parseInt(bounds[1]));
+                headers.set("Content-Range", "bytes " + start + "-" + end + "/" + body.length);
+                code = 206;
+            }
+            int length = end - start + 1;
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                headers.set("Content-Length", Integer.toString(length));
+                exchange.sendResponseHeaders(code, -1);
+                return;
+            }
+            long limit = failures.getAndDecrement() > 0 ? failAfter : -1;
+            exchange.sendResponseHeaders(code, length);
+            OutputStream out = exchange.getResponseBody();
+            int position = start;
+            while (position <= end) {
+                int chunk = Math.min(16 * 1024, end - position + 1);
+                if (limit >= 0) {
+                    chunk = (int) Math.min(chunk, limit - (position - start));
+                    if (chunk <= 0) {
+                        // closing the exchange before the announced length drops the connection
+                        out.flush();
+                        return;
+                    }
+                }
+                out.write(body, position, chunk);
+                bytesSent.addAndGet(chunk);
+                position += chunk;
+            }
+        }
+    }
+
+    static final class Request {
+
+        final String method;
+        final Map<String, String> headers = new HashMap<>();
+
+        private Request(HttpExchange exchange) {
+            this.method = exchange.getRequestMethod();
+            for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+                headers.put(header.getKey().toLowerCase(), header.getValue().get(0));
+            }
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+    }
+}